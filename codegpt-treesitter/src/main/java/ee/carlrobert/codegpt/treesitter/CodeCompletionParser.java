@@ -1,61 +1,97 @@
 package ee.carlrobert.codegpt.treesitter;
 
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import org.treesitter.TSInputEdit;
-import org.treesitter.TSLanguage;
+import org.treesitter.TSNode;
 import org.treesitter.TSParser;
 import org.treesitter.TSPoint;
 import org.treesitter.TSTree;
 
 public class CodeCompletionParser {
 
-  private final TSParser parser;
+  private final TreeSitterLanguage language;
 
-  public CodeCompletionParser(TSLanguage language) {
-    parser = new TSParser();
-    parser.setLanguage(language);
+  public CodeCompletionParser(TreeSitterLanguage language) {
+    this.language = language;
   }
 
   public String parse(String prefix, String suffix, String output) {
-    var result = new StringBuilder(output);
-    String input = prefix + result + suffix;
-    TSTree currentTree = parser.parseString(null, input);
-
-    while (!result.isEmpty()) {
-      if (containsError(currentTree)) {
-        int deletionIndex = prefix.length() + result.length() - 1;
-        Position pos = getPosition(input, deletionIndex);
-
-        int startByte = pos.byteOffset;
-        int oldEndByte = startByte + getByteLength(result.substring(result.length() - 1));
-
-        TSPoint startPoint = pos.point;
-        TSPoint oldEndPoint = computeOldEndPoint(startPoint, result.charAt(result.length() - 1));
-
-        currentTree.edit(
-            new TSInputEdit(startByte, oldEndByte, startByte, startPoint, oldEndPoint, startPoint));
-
-        result.deleteCharAt(result.length() - 1);
-
-        if (result.length() > 1 && result.charAt(result.length() - 1) == '{') {
-          long bracketCount = result.chars().filter(ch -> ch == '{').count();
-          if (bracketCount == 1) {
-            var newTree = parser.parseString(currentTree, prefix + result + "}" + suffix);
-            var treeString = newTree.getRootNode().toString();
-            if (!treeString.contains("ERROR")) {
-              return result + "}";
-            }
-          }
-        }
+    return parse(null, -1, prefix, suffix, output);
+  }
+
+  /**
+   * Same as {@link #parse(String, String, String)}, but starts from the tree of the document
+   * instead of parsing it from scratch. The document text must be {@code prefix + suffix}.
+   */
+  public String parse(
+      IncrementalSyntaxTree documentTree,
+      long documentStamp,
+      String prefix,
+      String suffix,
+      String output) {
+    return TreeSitterParserPool.getInstance().withParser(language, parser -> {
+      var baseTree = documentTree != null && documentTree.getLanguage() == language
+          ? documentTree.copyTree(parser, prefix + suffix, documentStamp)
+          : null;
+      return parse(parser, baseTree, prefix, suffix, output);
+    });
+  }
+
+  /**
+   * Returns whether the whole output leaves the file free of syntax errors, without searching
+   * for a shorter part that does. The document text must be {@code prefix + suffix}.
+   */
+  public boolean isValid(
+      IncrementalSyntaxTree documentTree,
+      long documentStamp,
+      String prefix,
+      String suffix,
+      String output) {
+    return TreeSitterParserPool.getInstance().withParser(language, parser -> {
+      var baseTree = documentTree != null && documentTree.getLanguage() == language
+          ? documentTree.copyTree(parser, prefix + suffix, documentStamp)
+          : null;
+      var search = new TruncationSearch(parser, baseTree, prefix, suffix, output);
+      return search.tryLength(output.length()) != null;
+    });
+  }
 
-        input = prefix + result + suffix;
+  /**
+   * Finds the longest part of the output that leaves the file free of syntax errors.
+   *
+   * <p>Line boundaries are tried first, from the last line to the first. Once a line boundary
+   * yields a valid file, only the line right after it is searched character by character, so the
+   * number of reparses is bounded by the number of lines plus the length of a single line.
+   */
+  private String parse(
+      TSParser parser,
+      TSTree baseTree,
+      String prefix,
+      String suffix,
+      String output) {
+    if (output.isEmpty()) {
+      return output;
+    }
 
-        currentTree = parser.parseString(currentTree, input);
-      } else {
-        return result.toString();
+    var search = new TruncationSearch(parser, baseTree, prefix, suffix, output);
+    var lineEnds = getLineEnds(output);
+    for (int i = 0; i < lineEnds.size(); i++) {
+      var repaired = search.tryLength(lineEnds.get(i));
+      if (repaired != null) {
+        if (i == 0) {
+          return repaired;
+        }
+        var refined = search.scanDown(lineEnds.get(i - 1) - 1, lineEnds.get(i) + 2);
+        return refined != null ? refined : repaired;
       }
     }
 
+    var repaired = search.scanDown(lineEnds.get(lineEnds.size() - 1) - 1, 1);
+    if (repaired != null) {
+      return repaired;
+    }
+
     if (output.contains("\n")) {
       var finalResult = output.substring(0, output.indexOf("\n"));
       if (finalResult.length() > 1 && finalResult.charAt(finalResult.length() - 1) == '{') {
@@ -67,50 +103,155 @@ public class CodeCompletionParser {
     return output;
   }
 
-  private boolean containsError(TSTree tree) {
-    var treeString = tree.getRootNode().toString();
-    return treeString.contains("ERROR")
-        || treeString.contains("MISSING \"}\"")
-        || treeString.contains("MISSING \")\"");
-  }
-
-  private Position getPosition(String input, int index) {
-    int row = 0;
-    int col = 0;
-    int byteOffset = 0;
-    for (int i = 0; i < index; i++) {
-      char c = input.charAt(i);
-      int charByteLength = getByteLength(String.valueOf(c));
-      byteOffset += charByteLength;
-
-      if (c == '\n') {
-        row++;
-        col = 0;
-      } else {
-        col++;
+  /**
+   * Returns the candidate output lengths that end at a line boundary, longest first.
+   */
+  private static List<Integer> getLineEnds(String output) {
+    var lineEnds = new ArrayList<Integer>();
+    lineEnds.add(output.length());
+    for (int i = output.length() - 1; i > 0; i--) {
+      if (output.charAt(i) == '\n') {
+        lineEnds.add(i);
       }
     }
-    return new Position(new TSPoint(row, col), byteOffset);
+    return lineEnds;
   }
 
-  private int getByteLength(String str) {
-    return str.getBytes(StandardCharsets.UTF_8).length;
+  private static boolean containsError(TSTree tree) {
+    var root = tree.getRootNode();
+    return root.hasError() && containsError(root);
   }
 
-  private TSPoint computeOldEndPoint(TSPoint startPoint, char deletedChar) {
-    int row = startPoint.getRow();
-    int col = startPoint.getColumn();
+  /**
+   * Walks only the subtrees that contain an error, looking for an ERROR node or for a missing
+   * closing brace or parenthesis. Other MISSING nodes, such as a missing semicolon, are tolerated.
+   */
+  private static boolean containsError(TSNode node) {
+    var type = node.getType();
+    if ("ERROR".equals(type)) {
+      return true;
+    }
+    if (node.isMissing() && ("}".equals(type) || ")".equals(type))) {
+      return true;
+    }
 
-    if (deletedChar == '\n') {
-      row++;
-      col = 0;
-    } else {
-      col++;
+    for (int i = 0; i < node.getChildCount(); i++) {
+      var child = node.getChild(i);
+      if (child.hasError() && containsError(child)) {
+        return true;
+      }
     }
-    return new TSPoint(row, col);
+    return false;
   }
 
-  private record Position(TSPoint point, int byteOffset) {
+  /**
+   * Reparses the file with the output cut at different lengths, editing the previous tree so
+   * that each reparse is incremental. The first tree is either the tree of the file without the
+   * output, or the tree of the file with the whole output.
+   */
+  private static class TruncationSearch {
 
+    private final TSParser parser;
+    private final String prefix;
+    private final String suffix;
+    private final String output;
+    private final int[] rows;
+    private final int[] columns;
+    private final int[] openingBraces;
+    private TSTree tree;
+    private int treeOutputLength;
+
+    TruncationSearch(
+        TSParser parser,
+        TSTree baseTree,
+        String prefix,
+        String suffix,
+        String output) {
+      this.parser = parser;
+      this.tree = baseTree;
+      this.prefix = prefix;
+      this.suffix = suffix;
+      this.output = output;
+
+      var length = output.length();
+      rows = new int[length + 1];
+      columns = new int[length + 1];
+      openingBraces = new int[length + 1];
+
+      var lastLineStart = prefix.lastIndexOf('\n') + 1;
+      rows[0] = (int) prefix.chars().filter(c -> c == '\n').count();
+      columns[0] = prefix.length() - lastLineStart;
+      for (int i = 0; i < length; i++) {
+        var c = output.charAt(i);
+        rows[i + 1] = c == '\n' ? rows[i] + 1 : rows[i];
+        columns[i + 1] = c == '\n' ? 0 : columns[i] + 1;
+        openingBraces[i + 1] = c == '{' ? openingBraces[i] + 1 : openingBraces[i];
+      }
+    }
+
+    /**
+     * Tries the lengths from {@code from} down to {@code to}, both inclusive, and returns the
+     * first valid repair.
+     */
+    String scanDown(int from, int to) {
+      for (int length = from; length >= Math.max(to, 1); length--) {
+        var repaired = tryLength(length);
+        if (repaired != null) {
+          return repaired;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns the output cut at the given length, with a closing brace appended if the cut
+     * leaves a single block open, or null if the file would still contain syntax errors.
+     */
+    String tryLength(int length) {
+      var result = output.substring(0, length);
+      if (length < output.length()
+          && length > 1
+          && output.charAt(length - 1) == '{'
+          && openingBraces[length] == 1) {
+        var closedTree =
+            IncrementalSyntaxTree.parse(parser, null, prefix + result + "}" + suffix);
+        if (!containsError(closedTree)) {
+          return result + "}";
+        }
+      }
+
+      reparse(length);
+      return containsError(tree) ? null : result;
+    }
+
+    private void reparse(int length) {
+      if (tree != null && length != treeOutputLength) {
+        var start = Math.min(length, treeOutputLength);
+        tree.edit(new TSInputEdit(
+            getByteOffset(start),
+            getByteOffset(treeOutputLength),
+            getByteOffset(length),
+            getPoint(start),
+            getPoint(treeOutputLength),
+            getPoint(length)));
+      }
+      if (tree == null || length != treeOutputLength) {
+        tree = IncrementalSyntaxTree.parse(
+            parser,
+            tree,
+            prefix + output.substring(0, length) + suffix);
+        treeOutputLength = length;
+      }
+    }
+
+    private int getByteOffset(int outputOffset) {
+      return IncrementalSyntaxTree.toByteOffset(prefix.length() + outputOffset);
+    }
+
+    private TSPoint getPoint(int outputOffset) {
+      return new TSPoint(
+          rows[outputOffset],
+          IncrementalSyntaxTree.toByteOffset(columns[outputOffset]));
+    }
   }
 }
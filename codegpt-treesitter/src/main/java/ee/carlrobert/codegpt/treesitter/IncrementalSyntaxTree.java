@@ -0,0 +1,143 @@
+package ee.carlrobert.codegpt.treesitter;
+
+import org.treesitter.TSInputEdit;
+import org.treesitter.TSInputEncoding;
+import org.treesitter.TSParser;
+import org.treesitter.TSPoint;
+import org.treesitter.TSTree;
+
+/**
+ * Syntax tree of a document that is kept in sync with the document's edits.
+ *
+ * <p>Edits are applied to the tree as they happen, which is cheap, and the tree is reparsed
+ * lazily the next time it is requested for that version of the text. Since the edited tree is
+ * passed to the parser, the reparse only covers the changed regions. The text is parsed as
+ * UTF-16, so that character offsets map to byte offsets without scanning the text.
+ *
+ * <p>Every version of the text is identified by the document's modification stamp. The tree is
+ * only reused for the exact version its edits lead to, any other version is parsed from scratch
+ * into a tree of its own, which isn't kept. Only the edits advance the kept tree, and parsing is
+ * done outside the lock, so that edits made while typing never wait for a parse.
+ */
+public final class IncrementalSyntaxTree {
+
+  private final TreeSitterLanguage language;
+  private TSTree tree;
+  private long treeStamp = -1;
+  private long latestStamp = -1;
+  private boolean reparseNeeded;
+
+  public IncrementalSyntaxTree(TreeSitterLanguage language) {
+    this.language = language;
+  }
+
+  public TreeSitterLanguage getLanguage() {
+    return language;
+  }
+
+  /**
+   * Records an edit of the document. Offsets and positions refer to the document before the
+   * edit, except for the new end, which refers to the document after it. The stamps are the
+   * document's modification stamps before and after the edit.
+   */
+  public synchronized void edit(
+      int startOffset,
+      int oldEndOffset,
+      int newEndOffset,
+      TextPosition start,
+      TextPosition oldEnd,
+      TextPosition newEnd,
+      long oldStamp,
+      long newStamp) {
+    latestStamp = newStamp;
+    if (tree == null) {
+      return;
+    }
+    if (treeStamp != oldStamp) {
+      // The tree describes another version of the text, so the edit can't be applied to it
+      tree = null;
+      treeStamp = -1;
+      return;
+    }
+
+    tree.edit(new TSInputEdit(
+        toByteOffset(startOffset),
+        toByteOffset(oldEndOffset),
+        toByteOffset(newEndOffset),
+        toPoint(start),
+        toPoint(oldEnd),
+        toPoint(newEnd)));
+    treeStamp = newStamp;
+    reparseNeeded = true;
+  }
+
+  /**
+   * Returns a tree for the given version of the text, owned by the caller. The kept tree is
+   * reparsed incrementally if it has been edited up to that version. Any other version is parsed
+   * from scratch, and only kept if there is no tree yet and it is the latest version.
+   */
+  TSTree copyTree(TSParser parser, String text, long modificationStamp) {
+    TSTree editedTree = null;
+    TSTree baseTree = null;
+    synchronized (this) {
+      if (tree != null && treeStamp == modificationStamp) {
+        if (!reparseNeeded) {
+          return tree.copy();
+        }
+        // Edits modify the tree in place, so the parser gets a copy
+        editedTree = tree;
+        baseTree = tree.copy();
+      }
+    }
+
+    if (editedTree != null) {
+      var reparsedTree = parse(parser, baseTree, text);
+      synchronized (this) {
+        if (tree == editedTree && treeStamp == modificationStamp) {
+          tree = reparsedTree;
+          reparseNeeded = false;
+          return reparsedTree.copy();
+        }
+      }
+      return reparsedTree;
+    }
+
+    var parsedTree = parse(parser, null, text);
+    synchronized (this) {
+      if (tree == null && (latestStamp == -1 || latestStamp == modificationStamp)) {
+        tree = parsedTree;
+        treeStamp = modificationStamp;
+        reparseNeeded = false;
+        return parsedTree.copy();
+      }
+    }
+    return parsedTree;
+  }
+
+  synchronized boolean isKeptFor(long modificationStamp) {
+    return tree != null && treeStamp == modificationStamp;
+  }
+
+  /**
+   * Drops the tree once the document is no longer tracked, so that its native memory can be
+   * freed without waiting for this object to become unreachable.
+   */
+  public synchronized void clear() {
+    tree = null;
+    treeStamp = -1;
+    latestStamp = -1;
+    reparseNeeded = false;
+  }
+
+  static TSTree parse(TSParser parser, TSTree oldTree, String text) {
+    return parser.parseStringEncoding(oldTree, text, TSInputEncoding.TSInputEncodingUTF16);
+  }
+
+  static int toByteOffset(int offset) {
+    return offset * 2;
+  }
+
+  private static TSPoint toPoint(TextPosition position) {
+    return new TSPoint(position.line(), toByteOffset(position.column()));
+  }
+}
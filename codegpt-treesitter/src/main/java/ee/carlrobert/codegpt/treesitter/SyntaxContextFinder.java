@@ -0,0 +1,228 @@
+package ee.carlrobert.codegpt.treesitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.treesitter.TSNode;
+import org.treesitter.TSQuery;
+import org.treesitter.TSQueryCursor;
+import org.treesitter.TSQueryMatch;
+import org.treesitter.TSTree;
+
+/**
+ * Finds the completion context of languages that the IDE has no PSI support for, with the
+ * {@code queries/<language>/context.scm} query of the language.
+ *
+ * <p>A query captures the elements that can enclose the caret as {@code @scope}, definitions as
+ * {@code @definition} with their identifier as {@code @name}, and identifiers that may refer to a
+ * definition as {@code @reference}. All offsets are character offsets.
+ */
+public final class SyntaxContextFinder {
+
+  private static final SyntaxContextFinder INSTANCE = new SyntaxContextFinder();
+  private static final int MAX_REFERENCED_NAMES = 64;
+  private static final int MAX_DEFINITIONS = 16;
+
+  private final Map<TreeSitterLanguage, Optional<TSQuery>> queries = new ConcurrentHashMap<>();
+
+  private SyntaxContextFinder() {
+  }
+
+  public static SyntaxContextFinder getInstance() {
+    return INSTANCE;
+  }
+
+  public boolean isSupported(TreeSitterLanguage language) {
+    return getQuery(language).isPresent();
+  }
+
+  /**
+   * Finds the innermost element enclosing the offset, the names it references, and the
+   * definitions of those names found elsewhere in the same text.
+   *
+   * @return the context, or null if the language is not supported or nothing encloses the offset
+   */
+  public Context findContext(
+      TreeSitterLanguage language,
+      IncrementalSyntaxTree documentTree,
+      long documentStamp,
+      String text,
+      int offset,
+      long deadlineNanos) {
+    var query = getQuery(language).orElse(null);
+    if (query == null) {
+      return null;
+    }
+
+    return TreeSitterParserPool.getInstance().withParser(language, parser -> {
+      var tree = documentTree != null && documentTree.getLanguage() == language
+          ? documentTree.copyTree(parser, text, documentStamp)
+          : IncrementalSyntaxTree.parse(parser, null, text);
+      var captures = collectCaptures(query, tree, text, deadlineNanos);
+
+      Range enclosingRange = null;
+      for (var scope : captures.scopes()) {
+        if (scope.contains(offset)
+            && (enclosingRange == null || enclosingRange.contains(scope))) {
+          enclosingRange = scope;
+        }
+      }
+      if (enclosingRange == null) {
+        return null;
+      }
+
+      var referencedNames = new LinkedHashSet<String>();
+      for (var reference : captures.references()) {
+        if (enclosingRange.contains(reference.range())) {
+          referencedNames.add(reference.name());
+          if (referencedNames.size() >= MAX_REFERENCED_NAMES) {
+            break;
+          }
+        }
+      }
+
+      var definitions = new ArrayList<Definition>();
+      for (var definition : captures.definitions()) {
+        var range = definition.range();
+        if (referencedNames.contains(definition.name())
+            && !enclosingRange.contains(range)
+            && !range.contains(enclosingRange)
+            && definitions.size() < MAX_DEFINITIONS) {
+          definitions.add(definition);
+        }
+      }
+      return new Context(enclosingRange, referencedNames, definitions);
+    });
+  }
+
+  /**
+   * Finds the definitions of the given names in the given text.
+   */
+  public List<Definition> findDefinitions(
+      TreeSitterLanguage language,
+      String text,
+      Set<String> names,
+      long deadlineNanos) {
+    var query = getQuery(language).orElse(null);
+    if (query == null || names.isEmpty()) {
+      return List.of();
+    }
+
+    return TreeSitterParserPool.getInstance().withParser(language, parser -> {
+      var tree = IncrementalSyntaxTree.parse(parser, null, text);
+      var definitions = new ArrayList<Definition>();
+      for (var definition : collectCaptures(query, tree, text, deadlineNanos).definitions()) {
+        if (names.contains(definition.name()) && definitions.size() < MAX_DEFINITIONS) {
+          definitions.add(definition);
+        }
+      }
+      return definitions;
+    });
+  }
+
+  private Optional<TSQuery> getQuery(TreeSitterLanguage language) {
+    return queries.computeIfAbsent(language, SyntaxContextFinder::loadQuery);
+  }
+
+  private static Optional<TSQuery> loadQuery(TreeSitterLanguage language) {
+    var path = "/queries/" + language.name().toLowerCase(Locale.ROOT) + "/context.scm";
+    try (var stream = SyntaxContextFinder.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        return Optional.empty();
+      }
+      var source = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+      return Optional.of(new TSQuery(language.getLanguage(), source));
+    } catch (IOException | RuntimeException e) {
+      // An invalid query disables the finder for the language instead of failing completions
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Runs the query over the whole tree. Stops early once the deadline passes, returning what was
+   * captured so far.
+   */
+  private static Captures collectCaptures(
+      TSQuery query,
+      TSTree tree,
+      String text,
+      long deadlineNanos) {
+    var captures = new Captures(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    var cursor = new TSQueryCursor();
+    cursor.exec(query, tree.getRootNode());
+    var match = new TSQueryMatch();
+    while (System.nanoTime() < deadlineNanos && cursor.nextMatch(match)) {
+      TSNode definitionNode = null;
+      TSNode nameNode = null;
+      for (var capture : match.getCaptures()) {
+        var node = capture.getNode();
+        switch (query.getCaptureNameForId(capture.getIndex())) {
+          case "scope" -> captures.scopes().add(Range.of(node));
+          case "definition" -> definitionNode = node;
+          case "name" -> nameNode = node;
+          case "reference" -> captures.references().add(
+              new Definition(Range.of(node).substring(text), Range.of(node)));
+          default -> {
+          }
+        }
+      }
+      if (definitionNode != null && nameNode != null) {
+        captures.definitions().add(
+            new Definition(Range.of(nameNode).substring(text), Range.of(definitionNode)));
+      }
+    }
+    return captures;
+  }
+
+  private record Captures(
+      List<Range> scopes,
+      List<Definition> definitions,
+      List<Definition> references) {
+
+  }
+
+  /**
+   * @param enclosingRange  range of the innermost element enclosing the offset
+   * @param referencedNames names referenced within the enclosing element
+   * @param definitions     definitions of the referenced names outside the enclosing element
+   */
+  public record Context(
+      Range enclosingRange,
+      Set<String> referencedNames,
+      List<Definition> definitions) {
+
+  }
+
+  public record Definition(String name, Range range) {
+
+  }
+
+  public record Range(int startOffset, int endOffset) {
+
+    static Range of(TSNode node) {
+      // The text is parsed as UTF-16, where every character takes two bytes
+      return new Range(node.getStartByte() / 2, node.getEndByte() / 2);
+    }
+
+    boolean contains(int offset) {
+      return startOffset <= offset && offset <= endOffset;
+    }
+
+    boolean contains(Range other) {
+      return startOffset <= other.startOffset && other.endOffset <= endOffset;
+    }
+
+    String substring(String text) {
+      return text.substring(
+          Math.min(startOffset, text.length()),
+          Math.min(endOffset, text.length()));
+    }
+  }
+}
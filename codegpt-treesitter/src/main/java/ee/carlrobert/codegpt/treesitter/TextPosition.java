@@ -0,0 +1,8 @@
+package ee.carlrobert.codegpt.treesitter;
+
+/**
+ * A zero-based line and column, both counted in characters.
+ */
+public record TextPosition(int line, int column) {
+
+}
@@ -0,0 +1,124 @@
+package ee.carlrobert.codegpt.treesitter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.treesitter.TSLanguage;
+import org.treesitter.TreeSitterCSharp;
+import org.treesitter.TreeSitterCpp;
+import org.treesitter.TreeSitterCss;
+import org.treesitter.TreeSitterDart;
+import org.treesitter.TreeSitterDockerfile;
+import org.treesitter.TreeSitterElixir;
+import org.treesitter.TreeSitterErlang;
+import org.treesitter.TreeSitterFortran;
+import org.treesitter.TreeSitterGitattributes;
+import org.treesitter.TreeSitterGo;
+import org.treesitter.TreeSitterGraphql;
+import org.treesitter.TreeSitterHtml;
+import org.treesitter.TreeSitterJava;
+import org.treesitter.TreeSitterJavascript;
+import org.treesitter.TreeSitterJson;
+import org.treesitter.TreeSitterKotlin;
+import org.treesitter.TreeSitterLatex;
+import org.treesitter.TreeSitterLua;
+import org.treesitter.TreeSitterM68k;
+import org.treesitter.TreeSitterMarkdown;
+import org.treesitter.TreeSitterObjc;
+import org.treesitter.TreeSitterPerl;
+import org.treesitter.TreeSitterPhp;
+import org.treesitter.TreeSitterPython;
+import org.treesitter.TreeSitterRuby;
+import org.treesitter.TreeSitterRust;
+import org.treesitter.TreeSitterScala;
+import org.treesitter.TreeSitterScss;
+import org.treesitter.TreeSitterSvelte;
+import org.treesitter.TreeSitterSwift;
+import org.treesitter.TreeSitterTypescript;
+import org.treesitter.TreeSitterYaml;
+
+/**
+ * Grammars available for post-processing. Each grammar is loaded on first use and shared by all
+ * parsers of that language.
+ */
+public enum TreeSitterLanguage {
+
+  JAVA(TreeSitterJava::new, "java"),
+  PHP(TreeSitterPhp::new, "php"),
+  PYTHON(TreeSitterPython::new, "py"),
+  TYPESCRIPT(TreeSitterTypescript::new, "ts", "tsx"),
+  JAVASCRIPT(TreeSitterJavascript::new, "js", "jsx"),
+  CPP(TreeSitterCpp::new, "c", "h", "cpp", "cxx", "cc", "c++", "hpp", "hxx", "hh", "h++"),
+  CSHARP(TreeSitterCSharp::new, "cs"),
+  CSS(TreeSitterCss::new, "css"),
+  DART(TreeSitterDart::new, "dart"),
+  DOCKERFILE(TreeSitterDockerfile::new, "dockerfile"),
+  ELIXIR(TreeSitterElixir::new, "elixir", "ex", "exs"),
+  ERLANG(TreeSitterErlang::new, "erl", "hrl"),
+  FORTRAN(TreeSitterFortran::new, "f90", "f95", "f03", "f08"),
+  GITATTRIBUTES(TreeSitterGitattributes::new, "gitattributes"),
+  GO(TreeSitterGo::new, "go"),
+  GRAPHQL(TreeSitterGraphql::new, "graphql", "gql"),
+  HTML(TreeSitterHtml::new, "html", "htm"),
+  JSON(TreeSitterJson::new, "json"),
+  KOTLIN(TreeSitterKotlin::new, "kotlin", "kt", "kts"),
+  LATEX(TreeSitterLatex::new, "latex", "tex"),
+  LUA(TreeSitterLua::new, "lua"),
+  M68K(TreeSitterM68k::new, "m68k"),
+  MARKDOWN(TreeSitterMarkdown::new, "markdown", "md"),
+  OBJC(TreeSitterObjc::new, "objc", "m", "mm"),
+  PERL(TreeSitterPerl::new, "perl", "pl", "pm"),
+  RUBY(TreeSitterRuby::new, "ruby", "rb"),
+  RUST(TreeSitterRust::new, "rust", "rs"),
+  SCALA(TreeSitterScala::new, "scala", "sc"),
+  SCSS(TreeSitterScss::new, "scss"),
+  SVELTE(TreeSitterSvelte::new, "svelte"),
+  SWIFT(TreeSitterSwift::new, "swift"),
+  YAML(TreeSitterYaml::new, "yml", "yaml");
+
+  private static final Map<String, TreeSitterLanguage> BY_EXTENSION = new HashMap<>();
+
+  static {
+    for (var language : values()) {
+      language.extensions.forEach(extension -> BY_EXTENSION.put(extension, language));
+    }
+  }
+
+  private final Supplier<TSLanguage> factory;
+  private final List<String> extensions;
+  private volatile TSLanguage language;
+
+  TreeSitterLanguage(Supplier<TSLanguage> factory, String... extensions) {
+    this.factory = factory;
+    this.extensions = List.of(extensions);
+  }
+
+  public static TreeSitterLanguage findByExtension(String extension) {
+    return extension == null ? null : BY_EXTENSION.get(extension);
+  }
+
+  public static int getLoadedCount() {
+    int count = 0;
+    for (var language : values()) {
+      if (language.language != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public TSLanguage getLanguage() {
+    var result = language;
+    if (result == null) {
+      synchronized (this) {
+        result = language;
+        if (result == null) {
+          result = factory.get();
+          language = result;
+        }
+      }
+    }
+    return result;
+  }
+}
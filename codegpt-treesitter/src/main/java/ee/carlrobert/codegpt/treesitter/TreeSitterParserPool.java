@@ -0,0 +1,79 @@
+package ee.carlrobert.codegpt.treesitter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.treesitter.TSParser;
+
+/**
+ * Keeps one native parser per thread and language, so that post-processing a completion does not
+ * allocate a new parser every time.
+ *
+ * <p>Parsers are not thread-safe, hence they are never shared between threads. The parser is
+ * reset once {@link #withParser} returns, but the trees it created don't depend on it and may be
+ * kept. Trees have no explicit release: the binding frees a tree's native memory once the tree is
+ * unreachable, so whoever keeps a reference to a tree owns it until dropping that reference.
+ *
+ * <p>Trees parsed for a single completion are dropped when the action returns. The only trees
+ * kept across calls are those of {@link IncrementalSyntaxTree}, one per open document, which
+ * owns its tree until the document changes to a version the tree can't follow or the tree is
+ * {@linkplain IncrementalSyntaxTree#clear() cleared} once the document is closed. It only hands
+ * out copies, which its callers drop with their other trees.
+ */
+public final class TreeSitterParserPool {
+
+  private static final TreeSitterParserPool INSTANCE = new TreeSitterParserPool();
+
+  private final ThreadLocal<Map<TreeSitterLanguage, TSParser>> parsers =
+      ThreadLocal.withInitial(() -> new EnumMap<>(TreeSitterLanguage.class));
+  private final AtomicLong createdParsers = new AtomicLong();
+  private final AtomicLong leases = new AtomicLong();
+
+  private TreeSitterParserPool() {
+  }
+
+  public static TreeSitterParserPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs the given action with the calling thread's parser for the given language.
+   */
+  public <T> T withParser(TreeSitterLanguage language, Function<TSParser, T> action) {
+    var parser = parsers.get().computeIfAbsent(language, this::createParser);
+    leases.incrementAndGet();
+    try {
+      return action.apply(parser);
+    } finally {
+      parser.reset();
+    }
+  }
+
+  /**
+   * Drops the calling thread's parsers, e.g. before the thread is retired.
+   */
+  public void releaseThreadParsers() {
+    parsers.remove();
+  }
+
+  public Metrics getMetrics() {
+    return new Metrics(TreeSitterLanguage.getLoadedCount(), createdParsers.get(), leases.get());
+  }
+
+  private TSParser createParser(TreeSitterLanguage language) {
+    createdParsers.incrementAndGet();
+    var parser = new TSParser();
+    parser.setLanguage(language.getLanguage());
+    return parser;
+  }
+
+  /**
+   * @param loadedLanguages number of grammars loaded so far
+   * @param createdParsers  number of native parsers allocated so far, across all threads
+   * @param leases          number of times a pooled parser was handed out
+   */
+  public record Metrics(int loadedLanguages, long createdParsers, long leases) {
+
+  }
+}
@@ -0,0 +1,21 @@
+; Enclosing elements
+(function_definition) @scope
+(class_specifier) @scope
+(struct_specifier) @scope
+
+; Definitions
+(function_definition
+  declarator: (function_declarator declarator: (identifier) @name)) @definition
+(function_definition
+  declarator: (function_declarator declarator: (field_identifier) @name)) @definition
+(function_definition
+  declarator: (function_declarator
+    declarator: (qualified_identifier name: (identifier) @name))) @definition
+(class_specifier name: (type_identifier) @name body: (_)) @definition
+(struct_specifier name: (type_identifier) @name body: (_)) @definition
+(enum_specifier name: (type_identifier) @name body: (_)) @definition
+
+; References
+(identifier) @reference
+(type_identifier) @reference
+(field_identifier) @reference
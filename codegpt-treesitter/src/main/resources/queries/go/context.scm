@@ -0,0 +1,16 @@
+; Enclosing elements
+(function_declaration) @scope
+(method_declaration) @scope
+(type_declaration) @scope
+
+; Definitions
+(function_declaration name: (identifier) @name) @definition
+(method_declaration name: (field_identifier) @name) @definition
+(type_declaration (type_spec name: (type_identifier) @name)) @definition
+(const_declaration (const_spec name: (identifier) @name)) @definition
+(source_file (var_declaration (var_spec name: (identifier) @name)) @definition)
+
+; References
+(identifier) @reference
+(type_identifier) @reference
+(field_identifier) @reference
@@ -0,0 +1,15 @@
+; Enclosing elements
+(function_declaration) @scope
+(method_definition) @scope
+(class_declaration) @scope
+(arrow_function) @scope
+
+; Definitions
+(function_declaration name: (identifier) @name) @definition
+(class_declaration name: (identifier) @name) @definition
+(method_definition name: (property_identifier) @name) @definition
+(program (lexical_declaration (variable_declarator name: (identifier) @name)) @definition)
+
+; References
+(identifier) @reference
+(property_identifier) @reference
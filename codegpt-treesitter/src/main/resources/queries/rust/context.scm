@@ -0,0 +1,18 @@
+; Enclosing elements
+(function_item) @scope
+(impl_item) @scope
+(trait_item) @scope
+
+; Definitions
+(function_item name: (identifier) @name) @definition
+(struct_item name: (type_identifier) @name) @definition
+(enum_item name: (type_identifier) @name) @definition
+(trait_item name: (type_identifier) @name) @definition
+(type_item name: (type_identifier) @name) @definition
+(const_item name: (identifier) @name) @definition
+(static_item name: (identifier) @name) @definition
+
+; References
+(identifier) @reference
+(type_identifier) @reference
+(field_identifier) @reference
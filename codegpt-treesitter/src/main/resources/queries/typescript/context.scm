@@ -0,0 +1,19 @@
+; Enclosing elements
+(function_declaration) @scope
+(method_definition) @scope
+(class_declaration) @scope
+(arrow_function) @scope
+
+; Definitions
+(function_declaration name: (identifier) @name) @definition
+(class_declaration name: (type_identifier) @name) @definition
+(interface_declaration name: (type_identifier) @name) @definition
+(type_alias_declaration name: (type_identifier) @name) @definition
+(enum_declaration name: (identifier) @name) @definition
+(method_definition name: (property_identifier) @name) @definition
+(program (lexical_declaration (variable_declarator name: (identifier) @name)) @definition)
+
+; References
+(identifier) @reference
+(type_identifier) @reference
+(property_identifier) @reference
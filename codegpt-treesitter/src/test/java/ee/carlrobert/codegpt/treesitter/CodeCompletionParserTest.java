@@ -65,4 +65,123 @@ public class CodeCompletionParserTest {
 
     assertThat(result).isEqualTo("int prevNumber");
   }
+
+  @Test
+  public void shouldKeepCompleteLinesOfMultiLineOutput() {
+    var prefix = """
+        class Main {
+          public void run() {
+        """;
+    var suffix = """
+
+          }
+        }""";
+    var output = """
+            int a = 1;
+            int b = 2;
+          }
+        }
+        }""";
+
+    var result = CodeCompletionParserFactory
+        .getParserForFileExtension("java")
+        .parse(prefix, suffix, output);
+
+    assertThat(result.stripTrailing()).isEqualTo("""
+            int a = 1;
+            int b = 2;""");
+  }
+
+  @Test
+  public void shouldRejectOutputWithDuplicateClosingBrace() {
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+    var prefix = """
+        class Main {
+          public void run() {
+        """;
+    var suffix = """
+
+          }
+        }""";
+
+    assertThat(parser.isValid(null, -1, prefix, suffix, """
+            int a = 1;
+            int b = 2;""")).isTrue();
+    assertThat(parser.isValid(null, -1, prefix, suffix, """
+            int a = 1;
+          }""")).isFalse();
+  }
+
+  @Test
+  public void shouldRepairOnTopOfEditedDocumentTree() {
+    var documentTree = new IncrementalSyntaxTree(TreeSitterLanguage.JAVA);
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+    var prefix = """
+        class Main {
+          public int getRandomNumber(int\s""";
+    var suffix = """
+        ) {
+            return 10;
+          }
+        }""";
+    assertThat(parser.parse(documentTree, 1, prefix, suffix, "prevNumber);"))
+        .isEqualTo("prevNumber");
+
+    documentTree.edit(
+        0,
+        0,
+        7,
+        new TextPosition(0, 0),
+        new TextPosition(0, 0),
+        new TextPosition(0, 7),
+        1,
+        2);
+    var result = parser.parse(documentTree, 2, "public " + prefix, suffix, "prevNumber);");
+
+    assertThat(result).isEqualTo("prevNumber");
+  }
+
+  @Test
+  public void shouldNotReuseEditedDocumentTreeForOlderText() {
+    var documentTree = new IncrementalSyntaxTree(TreeSitterLanguage.JAVA);
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+    var prefix = """
+        class Main {
+          public int getRandomNumber(int\s""";
+    var suffix = """
+        ) {
+            return 10;
+          }
+        }""";
+    parser.parse(documentTree, 1, prefix, suffix, "prevNumber);");
+    // Replaces "class" with "claz{", which keeps the length of the text
+    documentTree.edit(
+        0,
+        5,
+        5,
+        new TextPosition(0, 0),
+        new TextPosition(0, 5),
+        new TextPosition(0, 5),
+        1,
+        2);
+
+    var result = parser.parse(documentTree, 1, prefix, suffix, "prevNumber);");
+
+    assertThat(result).isEqualTo("prevNumber");
+    assertThat(documentTree.isKeptFor(2)).isTrue();
+  }
+
+  @Test
+  public void shouldReuseParserOnSameThread() {
+    var parser = CodeCompletionParserFactory.getParserForFileExtension("java");
+    parser.parse("class Main {", "}", "int a;");
+    var createdParsers = TreeSitterParserPool.getInstance().getMetrics().createdParsers();
+
+    parser.parse("class Main {", "}", "int b;");
+    CodeCompletionParserFactory.getParserForFileExtension("java")
+        .parse("class Main {", "}", "int c;");
+
+    assertThat(TreeSitterParserPool.getInstance().getMetrics().createdParsers())
+        .isEqualTo(createdParsers);
+  }
 }
@@ -0,0 +1,69 @@
+package ee.carlrobert.codegpt.treesitter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class SyntaxContextFinderTest {
+
+  private static final String GO_SOURCE = """
+      package main
+
+      type Point struct {
+      	X int
+      	Y int
+      }
+
+      func distance(a Point, b Point) int {
+      	return abs(a.X-b.X) + abs(a.Y-b.Y)
+      }
+
+      func abs(value int) int {
+      	if value < 0 {
+      		return -value
+      	}
+      	return value
+      }
+      """;
+
+  @Test
+  public void shouldFindEnclosingFunctionAndReferencedDefinitions() {
+    var offset = GO_SOURCE.indexOf("return abs");
+
+    var context = SyntaxContextFinder.getInstance().findContext(
+        TreeSitterLanguage.GO, null, -1, GO_SOURCE, offset, deadline());
+
+    assertThat(context).isNotNull();
+    assertThat(GO_SOURCE.substring(
+        context.enclosingRange().startOffset(),
+        context.enclosingRange().endOffset()))
+        .startsWith("func distance");
+    assertThat(context.referencedNames()).contains("Point", "abs");
+    assertThat(context.definitions())
+        .extracting(SyntaxContextFinder.Definition::name)
+        .containsExactlyInAnyOrder("Point", "abs");
+  }
+
+  @Test
+  public void shouldFindDefinitionsByName() {
+    var definitions = SyntaxContextFinder.getInstance().findDefinitions(
+        TreeSitterLanguage.GO, GO_SOURCE, Set.of("abs"), deadline());
+
+    assertThat(definitions).hasSize(1);
+    assertThat(GO_SOURCE.substring(
+        definitions.get(0).range().startOffset(),
+        definitions.get(0).range().endOffset()))
+        .startsWith("func abs");
+  }
+
+  @Test
+  public void shouldNotSupportLanguagesWithoutQuery() {
+    assertThat(SyntaxContextFinder.getInstance().isSupported(TreeSitterLanguage.YAML)).isFalse();
+  }
+
+  private static long deadline() {
+    return System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+  }
+}
@@ -1,6 +1,9 @@
 package ee.carlrobert.codegpt;
 
 import com.intellij.openapi.util.Key;
+import ee.carlrobert.codegpt.codecompletions.CodeCompletionCache;
+import ee.carlrobert.codegpt.codecompletions.CompletionLineBuffer;
+import ee.carlrobert.codegpt.codecompletions.DocumentSyntaxTreeTracker;
 import ee.carlrobert.codegpt.predictions.CodeSuggestionDiffViewer;
 import ee.carlrobert.llm.client.codegpt.CodeGPTUserDetails;
 import okhttp3.Call;
@@ -13,8 +16,12 @@ public class CodeGPTKeys {
       Key.create("codegpt.imageAttachmentFilePath");
   public static final Key<CodeGPTUserDetails> CODEGPT_USER_DETAILS =
       Key.create("codegpt.userDetails");
-  public static final Key<String> REMAINING_EDITOR_COMPLETION =
+  public static final Key<CompletionLineBuffer> REMAINING_EDITOR_COMPLETION =
       Key.create("codegpt.editorCompletionLines");
+  public static final Key<CodeCompletionCache> CODE_COMPLETION_CACHE =
+      Key.create("codegpt.editorCodeCompletionCache");
+  public static final Key<DocumentSyntaxTreeTracker> DOCUMENT_SYNTAX_TREE =
+      Key.create("codegpt.documentSyntaxTree");
   public static final Key<Call> PENDING_PREDICTION_CALL =
       Key.create("codegpt.editorPendingPredictionCall");
   public static final Key<Boolean> COMPLETION_IN_PROGRESS =
@@ -14,19 +14,36 @@ import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionDe
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIChatCompletionStandardMessage;
 import ee.carlrobert.llm.client.openai.completion.request.OpenAIMessageTextContent;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 @Service
 public final class EncodingManager {
 
-  private static final String SPECIAL_START = "<|";
-  private static final String SPECIAL_END = "|>";
+  private static final Pattern SPECIAL_TOKEN_PATTERN = Pattern.compile("<\\||\\|>");
+  private static final int MIN_CACHED_TEXT_LENGTH = 64;
+  static final int MAX_CACHE_ENTRIES = 2048;
+  private static final int CHARS_PER_TOKEN_ESTIMATE = 6;
+  private static final int MIN_CHARS_PER_TOKEN = 2;
 
   private static final Logger LOG = Logger.getInstance(EncodingManager.class);
 
   private final EncodingRegistry registry = Encodings.newDefaultEncodingRegistry();
-  private final Encoding encoding = registry.getEncoding(EncodingType.CL100K_BASE);
+  private final EncodingType encodingType = EncodingType.CL100K_BASE;
+  private final Encoding encoding = registry.getEncoding(encodingType);
+  private final Map<TokenCountKey, Integer> tokenCountCache =
+      Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TokenCountKey, Integer> eldest) {
+          return size() > MAX_CACHE_ENTRIES;
+        }
+      });
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong cacheMisses = new AtomicLong();
 
   private EncodingManager() {
   }
@@ -60,20 +77,62 @@ public final class EncodingManager {
     return countTokens(role + content) + tokensPerMessage;
   }
 
+  /**
+   * Creates a session that counts the tokens of a text as it is being appended, re-encoding only
+   * the part of the text whose tokenization can still change.
+   */
+  public TokenCountSession createTokenCountSession() {
+    return new TokenCountSession(this::countTokens);
+  }
+
   public int countTokens(String text) {
     if (text == null || text.isEmpty()) {
       return 0;
     }
 
+    if (text.length() < MIN_CACHED_TEXT_LENGTH) {
+      return encodeAndCount(text);
+    }
+
+    var key = TokenCountKey.of(encodingType, text);
+    var cachedCount = tokenCountCache.get(key);
+    if (cachedCount != null) {
+      cacheHits.incrementAndGet();
+      return cachedCount;
+    }
+
+    cacheMisses.incrementAndGet();
+    var count = encodeAndCount(text);
+    if (count > 0) {
+      tokenCountCache.put(key, count);
+    }
+    return count;
+  }
+
+  public TokenCountCacheStatistics getTokenCountCacheStatistics() {
+    return new TokenCountCacheStatistics(
+        cacheHits.get(),
+        cacheMisses.get(),
+        tokenCountCache.size());
+  }
+
+  private int encodeAndCount(String text) {
     try {
       // #444: Cl100kParser.split() throws AssertionError "Input is not UTF-8: "
-      return encoding.countTokens(text.replaceAll("<|", "").replaceAll("|>", ""));
+      return encoding.countTokens(removeSpecialTokens(text));
     } catch (Exception | Error ex) {
       LOG.warn("Could not count tokens for: " + text, ex);
       return 0;
     }
   }
 
+  private static String removeSpecialTokens(String text) {
+    if (text.indexOf('<') == -1 && text.indexOf('>') == -1) {
+      return text;
+    }
+    return SPECIAL_TOKEN_PATTERN.matcher(text).replaceAll("");
+  }
+
   /**
    * Truncates the given text to the given number of tokens.
    *
@@ -82,19 +141,127 @@ public final class EncodingManager {
    * @param fromStart Whether to truncate from the start or the end of the text.
    * @return The truncated text.
    */
-  public String truncateText(String text, int maxTokens, boolean fromStart) {
-    var textWithSpecialEncodingsRemoved = text.replace(SPECIAL_START, "").replace(SPECIAL_END, "");
-    var tokens = encoding.encode(textWithSpecialEncodingsRemoved);
-    int tokensToRetrieve = Math.min(maxTokens, tokens.size());
-    int startIndex = fromStart ? 0 : tokens.size() - tokensToRetrieve;
-    var truncatedList =
-        tokens.boxed().subList(startIndex, startIndex + tokensToRetrieve);
-    return encoding.decode(convertToIntArrayList(truncatedList));
-  }
-
-  private IntArrayList convertToIntArrayList(List<Integer> tokens) {
-    var result = new IntArrayList(tokens.size());
-    tokens.forEach(result::add);
-    return result;
+  public String truncateText(CharSequence text, int maxTokens, boolean fromStart) {
+    var offset = getTruncationOffset(text, maxTokens, fromStart);
+    var truncatedText = fromStart
+        ? text.subSequence(0, offset)
+        : text.subSequence(offset, text.length());
+    return removeSpecialTokens(truncatedText.toString());
+  }
+
+  /**
+   * Finds where the given text should be cut to keep at most the given number of tokens.
+   *
+   * <p>Only a window of characters from the kept end is tokenized, sized from an estimate of
+   * characters per token and widened if it turns out to hold fewer tokens than requested.
+   *
+   * @param text      The text to truncate.
+   * @param maxTokens The maximum number of tokens to keep.
+   * @param fromStart Whether to keep the start or the end of the text.
+   * @return The exclusive end offset of the kept text if {@code fromStart} is set, otherwise its
+   *     start offset.
+   */
+  public int getTruncationOffset(CharSequence text, int maxTokens, boolean fromStart) {
+    var length = text.length();
+    if (maxTokens <= 0) {
+      return fromStart ? 0 : length;
+    }
+
+    var windowLength = (int) Math.min(length, (long) maxTokens * CHARS_PER_TOKEN_ESTIMATE);
+    while (true) {
+      var windowStart = fromStart ? 0 : codePointBoundary(text, length - windowLength);
+      var windowEnd = fromStart ? codePointBoundary(text, windowLength) : length;
+      var window = text.subSequence(windowStart, windowEnd).toString();
+
+      IntArrayList tokens;
+      try {
+        tokens = encoding.encodeOrdinary(window);
+      } catch (Exception | Error ex) {
+        LOG.warn("Could not encode text for truncation", ex);
+        var estimatedLength = (int) Math.min(length, (long) maxTokens * MIN_CHARS_PER_TOKEN);
+        return fromStart ? estimatedLength : length - estimatedLength;
+      }
+
+      if (tokens.size() <= maxTokens) {
+        if (windowEnd - windowStart >= length) {
+          return fromStart ? length : 0;
+        }
+        windowLength = (int) Math.min(length, windowLength * 2L);
+        continue;
+      }
+
+      var keptTokens = new IntArrayList(maxTokens);
+      var firstKeptToken = fromStart ? 0 : tokens.size() - maxTokens;
+      for (int i = firstKeptToken; i < firstKeptToken + maxTokens; i++) {
+        keptTokens.add(tokens.get(i));
+      }
+      var keptBytes = encoding.decodeBytes(keptTokens).length;
+      return fromStart
+          ? windowStart + charsInLeadingBytes(window, keptBytes)
+          : windowEnd - charsInTrailingBytes(window, keptBytes);
+    }
+  }
+
+  private static int codePointBoundary(CharSequence text, int offset) {
+    if (offset > 0 && offset < text.length()
+        && Character.isLowSurrogate(text.charAt(offset))
+        && Character.isHighSurrogate(text.charAt(offset - 1))) {
+      return offset - 1;
+    }
+    return offset;
+  }
+
+  private static int charsInLeadingBytes(String text, int byteCount) {
+    int bytes = 0;
+    int i = 0;
+    while (i < text.length()) {
+      var codePoint = text.codePointAt(i);
+      bytes += utf8Length(codePoint);
+      if (bytes > byteCount) {
+        break;
+      }
+      i += Character.charCount(codePoint);
+    }
+    return i;
+  }
+
+  private static int charsInTrailingBytes(String text, int byteCount) {
+    int bytes = 0;
+    int i = text.length();
+    while (i > 0) {
+      var codePoint = text.codePointBefore(i);
+      bytes += utf8Length(codePoint);
+      if (bytes > byteCount) {
+        break;
+      }
+      i -= Character.charCount(codePoint);
+    }
+    return text.length() - i;
+  }
+
+  private static int utf8Length(int codePoint) {
+    if (codePoint < 0x80) {
+      return 1;
+    }
+    if (codePoint < 0x800) {
+      return 2;
+    }
+    return codePoint < 0x10000 ? 3 : 4;
+  }
+
+  public record TokenCountCacheStatistics(long hits, long misses, int size) {
+  }
+
+  private record TokenCountKey(EncodingType encodingType, int length, int hash, long fingerprint) {
+
+    static TokenCountKey of(EncodingType encodingType, String text) {
+      // FNV-1a, combined with the length and String#hashCode to make collisions negligible
+      long fingerprint = 0xcbf29ce484222325L;
+      for (int i = 0; i < text.length(); i++) {
+        fingerprint ^= text.charAt(i);
+        fingerprint *= 0x100000001b3L;
+      }
+      return new TokenCountKey(encodingType, text.length(), text.hashCode(), fingerprint);
+    }
   }
 }
@@ -0,0 +1,83 @@
+package ee.carlrobert.codegpt;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Counts the tokens of a text that is built up incrementally, such as a streamed response.
+ *
+ * <p>The text is split into a stable part and an unstable tail. A position is stable when it
+ * follows a letter or digit and precedes whitespace, because no pre-tokenization chunk of the
+ * cl100k encoding can span it, no matter what is appended later. The stable part is counted
+ * once, and only the tail is re-encoded on each append.
+ *
+ * <p>Text without such positions, such as CJK prose or long symbol runs, would make the tail grow
+ * without bound. Once the tail exceeds {@link #MAX_TAIL_LENGTH} characters, it is committed at its
+ * last whitespace, or else all but the last {@link #TAIL_WINDOW} characters are. Chunks split
+ * there may be encoded slightly differently than in the whole text, so the count becomes an
+ * estimate for such text.
+ */
+public final class TokenCountSession {
+
+  static final int MAX_TAIL_LENGTH = 256;
+  static final int TAIL_WINDOW = 32;
+
+  private final ToIntFunction<String> tokenCounter;
+  private final StringBuilder tail = new StringBuilder();
+  private int stableTokens;
+  private int tailTokens;
+
+  TokenCountSession(ToIntFunction<String> tokenCounter) {
+    this.tokenCounter = tokenCounter;
+  }
+
+  /**
+   * Appends the given text and returns the token count of everything appended so far.
+   */
+  public synchronized int append(String text) {
+    if (text == null || text.isEmpty()) {
+      return getTokenCount();
+    }
+
+    var previousLength = tail.length();
+    tail.append(text);
+
+    var boundary = findLastStableBoundary(Math.max(1, previousLength));
+    if (boundary <= 0 && tail.length() > MAX_TAIL_LENGTH) {
+      boundary = findFallbackBoundary();
+    }
+    if (boundary > 0) {
+      stableTokens += tokenCounter.applyAsInt(tail.substring(0, boundary));
+      tail.delete(0, boundary);
+    }
+    tailTokens = tokenCounter.applyAsInt(tail.toString());
+    return getTokenCount();
+  }
+
+  public synchronized int getTokenCount() {
+    return stableTokens + tailTokens;
+  }
+
+  private int findLastStableBoundary(int fromIndex) {
+    for (int i = tail.length() - 1; i >= fromIndex; i--) {
+      if (isWhitespace(tail.charAt(i))
+          && Character.isLetterOrDigit(Character.codePointBefore(tail, i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int findFallbackBoundary() {
+    for (int i = tail.length() - 1; i > 0 && tail.length() - i <= MAX_TAIL_LENGTH; i--) {
+      if (isWhitespace(tail.charAt(i))) {
+        return i;
+      }
+    }
+    var boundary = tail.length() - TAIL_WINDOW;
+    return Character.isLowSurrogate(tail.charAt(boundary)) ? boundary - 1 : boundary;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+}
@@ -4,7 +4,6 @@ import static ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential;
 
 import com.intellij.openapi.application.ApplicationManager;
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey;
-import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings;
 import ee.carlrobert.codegpt.settings.service.anthropic.AnthropicSettings;
 import ee.carlrobert.codegpt.settings.service.azure.AzureSettings;
 import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
@@ -18,10 +17,6 @@ import ee.carlrobert.llm.client.google.GoogleClient;
 import ee.carlrobert.llm.client.llama.LlamaClient;
 import ee.carlrobert.llm.client.ollama.OllamaClient;
 import ee.carlrobert.llm.client.openai.OpenAIClient;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.util.concurrent.TimeUnit;
-import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 
 public class CompletionClientProvider {
@@ -95,26 +90,10 @@ public class CompletionClientProvider {
   }
 
   public static OkHttpClient.Builder getDefaultClientBuilder() {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder();
-    var advancedSettings = AdvancedSettings.getCurrentState();
-    var proxyHost = advancedSettings.getProxyHost();
-    var proxyPort = advancedSettings.getProxyPort();
-    if (!proxyHost.isEmpty() && proxyPort != 0) {
-      builder.proxy(
-          new Proxy(advancedSettings.getProxyType(), new InetSocketAddress(proxyHost, proxyPort)));
-      if (advancedSettings.isProxyAuthSelected()) {
-        builder.proxyAuthenticator((route, response) ->
-            response.request()
-                .newBuilder()
-                .header("Proxy-Authorization", Credentials.basic(
-                    advancedSettings.getProxyUsername(),
-                    advancedSettings.getProxyPassword()))
-                .build());
-      }
-    }
+    return HttpTransportService.getInstance().newClientBuilder();
+  }
 
-    return builder
-        .connectTimeout(advancedSettings.getConnectTimeout(), TimeUnit.SECONDS)
-        .readTimeout(advancedSettings.getReadTimeout(), TimeUnit.SECONDS);
+  public static OkHttpClient getDefaultClient() {
+    return HttpTransportService.getInstance().getClient();
   }
 }
@@ -4,6 +4,8 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import ee.carlrobert.codegpt.completions.factory.CustomOpenAIRequest;
+import ee.carlrobert.codegpt.completions.llama.LlamaPromptCache;
+import ee.carlrobert.codegpt.completions.llama.LlamaSlot;
 import ee.carlrobert.codegpt.credentials.CredentialsStore;
 import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey;
 import ee.carlrobert.codegpt.settings.GeneralSettings;
@@ -48,7 +50,7 @@ public final class CompletionRequestService {
   public EventSource getCustomOpenAICompletionAsync(
       Request customRequest,
       CompletionEventListener<String> eventListener) {
-    var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+    var httpClient = CompletionClientProvider.getDefaultClient();
     return EventSources.createFactory(httpClient).newEventSource(
         customRequest,
         new OpenAITextCompletionEventSourceListener(eventListener));
@@ -57,7 +59,7 @@ public final class CompletionRequestService {
   public EventSource getCustomOpenAIChatCompletionAsync(
       Request customRequest,
       CompletionEventListener<String> eventListener) {
-    var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+    var httpClient = CompletionClientProvider.getDefaultClient();
     return EventSources.createFactory(httpClient).newEventSource(
         customRequest,
         new OpenAIChatCompletionEventSourceListener(eventListener));
@@ -123,6 +125,12 @@ public final class CompletionRequestService {
           eventListener);
     }
     if (request instanceof LlamaCompletionRequest completionRequest) {
+      if (LlamaPromptCache.isEnabled()) {
+        return LlamaPromptCache.getInstance().getCompletionAsync(
+            completionRequest,
+            LlamaSlot.CHAT,
+            eventListener);
+      }
       return CompletionClientProvider.getLlamaClient().getChatCompletionAsync(
           completionRequest,
           eventListener);
@@ -150,7 +158,7 @@ public final class CompletionRequestService {
       return tryExtractContent(response).orElseThrow();
     }
     if (request instanceof CustomOpenAIRequest completionRequest) {
-      var httpClient = CompletionClientProvider.getDefaultClientBuilder().build();
+      var httpClient = CompletionClientProvider.getDefaultClient();
       try (var response = httpClient.newCall(completionRequest.getRequest()).execute()) {
         return DeserializationUtil.mapResponse(response, OpenAIChatCompletionResponse.class)
             .getChoices().get(0)
@@ -0,0 +1,209 @@
+package ee.carlrobert.codegpt.completions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettings;
+import ee.carlrobert.codegpt.settings.advanced.AdvancedSettingsState;
+import ee.carlrobert.codegpt.settings.service.ServiceType;
+import ee.carlrobert.codegpt.settings.service.custom.CustomServicesSettings;
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings;
+import ee.carlrobert.codegpt.settings.service.ollama.OllamaSettings;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Owns the HTTP transport shared by all LLM clients. Every client is derived from a single
+ * {@link OkHttpClient}, so that they share one connection pool and dispatcher, and the base
+ * client is rebuilt only when the proxy or timeout settings change.
+ */
+@Service
+public final class HttpTransportService {
+
+  private static final Logger LOG = Logger.getInstance(HttpTransportService.class);
+
+  private static final int MAX_IDLE_CONNECTIONS = 8;
+  private static final long KEEP_ALIVE_MINUTES = 5;
+  private static final int MAX_REQUESTS = 64;
+  private static final int MAX_REQUESTS_PER_HOST = 16;
+  private static final long WARM_UP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final ConnectionPool connectionPool =
+      new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+  private final Dispatcher dispatcher = new Dispatcher();
+  private final Map<String, Long> lastWarmUpTimes = new ConcurrentHashMap<>();
+
+  private volatile TransportSettings settings;
+  private volatile OkHttpClient client;
+
+  private HttpTransportService() {
+    dispatcher.setMaxRequests(MAX_REQUESTS);
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+  }
+
+  public static HttpTransportService getInstance() {
+    return ApplicationManager.getApplication().getService(HttpTransportService.class);
+  }
+
+  /**
+   * Returns the shared client, rebuilding it if the advanced settings have changed since it was
+   * last built.
+   */
+  public OkHttpClient getClient() {
+    var currentSettings = TransportSettings.of(AdvancedSettings.getCurrentState());
+    var currentClient = client;
+    if (currentClient != null && currentSettings.equals(settings)) {
+      return currentClient;
+    }
+
+    synchronized (this) {
+      if (client == null || !currentSettings.equals(settings)) {
+        if (client != null) {
+          // Pooled connections may have been opened through the previous proxy
+          connectionPool.evictAll();
+        }
+        client = createClient(currentSettings);
+        settings = currentSettings;
+      }
+      return client;
+    }
+  }
+
+  /**
+   * Returns a builder for a client that shares the connection pool and dispatcher of the
+   * shared client.
+   */
+  public OkHttpClient.Builder newClientBuilder() {
+    return getClient().newBuilder();
+  }
+
+  /**
+   * Opens a connection to the given provider ahead of the first request, so that the first
+   * completion does not pay for the connection and TLS handshake.
+   */
+  public void warmUp(@Nullable ServiceType serviceType) {
+    var url = getWarmUpUrl(serviceType);
+    if (url == null) {
+      return;
+    }
+
+    var origin = url.scheme() + "://" + url.host() + ":" + url.port();
+    var now = System.currentTimeMillis();
+    var lastWarmUpTime = lastWarmUpTimes.get(origin);
+    if (lastWarmUpTime != null && now - lastWarmUpTime < WARM_UP_INTERVAL_MILLIS) {
+      return;
+    }
+    lastWarmUpTimes.put(origin, now);
+
+    var request = new Request.Builder()
+        .url(url.newBuilder().encodedPath("/").build())
+        .head()
+        .build();
+    getClient().newCall(request).enqueue(new Callback() {
+      @Override
+      public void onFailure(@NotNull Call call, @NotNull IOException e) {
+        LOG.debug("Unable to warm up connection to " + origin, e);
+      }
+
+      @Override
+      public void onResponse(@NotNull Call call, @NotNull Response response) {
+        response.close();
+      }
+    });
+  }
+
+  private static @Nullable HttpUrl getWarmUpUrl(@Nullable ServiceType serviceType) {
+    if (serviceType == null) {
+      return null;
+    }
+
+    return switch (serviceType) {
+      case OPENAI -> HttpUrl.parse("https://api.openai.com");
+      case CUSTOM_OPENAI -> {
+        var url = ApplicationManager.getApplication().getService(CustomServicesSettings.class)
+            .getState()
+            .getActive()
+            .getCodeCompletionSettings()
+            .getUrl();
+        yield url == null ? null : HttpUrl.parse(url);
+      }
+      case OLLAMA -> HttpUrl.parse(ApplicationManager.getApplication()
+          .getService(OllamaSettings.class)
+          .getState()
+          .getHost());
+      case LLAMA_CPP -> {
+        var llamaSettings = LlamaSettings.getCurrentState();
+        yield llamaSettings.isRunLocalServer()
+            ? HttpUrl.parse("http://localhost:" + llamaSettings.getServerPort())
+            : HttpUrl.parse(llamaSettings.getBaseHost());
+      }
+      default -> null;
+    };
+  }
+
+  private OkHttpClient createClient(TransportSettings settings) {
+    var builder = new OkHttpClient.Builder()
+        .connectionPool(connectionPool)
+        .dispatcher(dispatcher)
+        .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1));
+    if (!settings.proxyHost().isEmpty() && settings.proxyPort() != 0) {
+      builder.proxy(new Proxy(
+          settings.proxyType(),
+          new InetSocketAddress(settings.proxyHost(), settings.proxyPort())));
+      if (settings.proxyAuthSelected()) {
+        builder.proxyAuthenticator((route, response) ->
+            response.request()
+                .newBuilder()
+                .header("Proxy-Authorization", Credentials.basic(
+                    settings.proxyUsername(),
+                    settings.proxyPassword()))
+                .build());
+      }
+    }
+
+    return builder
+        .connectTimeout(settings.connectTimeout(), TimeUnit.SECONDS)
+        .readTimeout(settings.readTimeout(), TimeUnit.SECONDS)
+        .build();
+  }
+
+  private record TransportSettings(
+      String proxyHost,
+      int proxyPort,
+      Proxy.Type proxyType,
+      boolean proxyAuthSelected,
+      String proxyUsername,
+      String proxyPassword,
+      int connectTimeout,
+      int readTimeout) {
+
+    static TransportSettings of(AdvancedSettingsState state) {
+      return new TransportSettings(
+          state.getProxyHost(),
+          state.getProxyPort(),
+          state.getProxyType(),
+          state.isProxyAuthSelected(),
+          state.getProxyUsername(),
+          state.getProxyPassword(),
+          state.getConnectTimeout(),
+          state.getReadTimeout());
+    }
+  }
+}
@@ -30,6 +30,7 @@ public class LlamaSettingsState {
   private double minP = 0.05;
   private double repeatPenalty = 1.1;
   private boolean codeCompletionsEnabled = false;
+  private boolean promptCacheEnabled = false;
 
   public boolean isUseCustomModel() {
     return useCustomModel;
@@ -195,6 +196,14 @@ public class LlamaSettingsState {
     this.codeCompletionsEnabled = codeCompletionsEnabled;
   }
 
+  public boolean isPromptCacheEnabled() {
+    return promptCacheEnabled;
+  }
+
+  public void setPromptCacheEnabled(boolean promptCacheEnabled) {
+    this.promptCacheEnabled = promptCacheEnabled;
+  }
+
   private static Integer getRandomAvailablePortOrDefault() {
     try (ServerSocket socket = new ServerSocket(0)) {
       return socket.getLocalPort();
@@ -231,7 +240,8 @@ public class LlamaSettingsState {
         && Objects.equals(additionalParameters, that.additionalParameters)
         && Objects.equals(additionalBuildParameters, that.additionalBuildParameters)
         && Objects.equals(additionalEnvironmentVariables, that.additionalEnvironmentVariables)
-        && codeCompletionsEnabled == that.codeCompletionsEnabled;
+        && codeCompletionsEnabled == that.codeCompletionsEnabled
+        && promptCacheEnabled == that.promptCacheEnabled;
   }
 
   @Override
@@ -241,6 +251,6 @@ public class LlamaSettingsState {
         remoteModelInfillPromptTemplate, baseHost, serverPort, contextSize, threads,
         additionalParameters, additionalBuildParameters, additionalEnvironmentVariables, topK, topP,
         minP, repeatPenalty,
-        codeCompletionsEnabled);
+        codeCompletionsEnabled, promptCacheEnabled);
   }
 }
@@ -1,6 +1,7 @@
 package ee.carlrobert.codegpt.settings.service.llama.form;
 
 import com.intellij.openapi.ui.panel.ComponentPanelBuilder;
+import com.intellij.ui.components.JBCheckBox;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.ui.components.fields.IntegerField;
 import com.intellij.util.ui.FormBuilder;
@@ -16,6 +17,7 @@ public class LlamaRequestPreferencesForm {
   private final JBTextField topPField;
   private final JBTextField minPField;
   private final JBTextField repeatPenaltyField;
+  private final JBCheckBox promptCacheCheckBox;
 
   public LlamaRequestPreferencesForm(LlamaSettingsState llamaSettings) {
     topKField = new IntegerField();
@@ -27,6 +29,9 @@ public class LlamaRequestPreferencesForm {
     minPField.setText(String.valueOf(llamaSettings.getMinP()));
     repeatPenaltyField = new JBTextField(12);
     repeatPenaltyField.setText(String.valueOf(llamaSettings.getRepeatPenalty()));
+    promptCacheCheckBox = new JBCheckBox(
+        CodeGPTBundle.get("settingsConfigurable.service.llama.promptCache.label"),
+        llamaSettings.isPromptCacheEnabled());
   }
 
   public JPanel getForm() {
@@ -51,6 +56,8 @@ public class LlamaRequestPreferencesForm {
             repeatPenaltyField)
         .addComponentToRightColumn(
             createComment("settingsConfigurable.service.llama.repeatPenalty.comment"))
+        .addComponent(promptCacheCheckBox)
+        .addComponent(createComment("settingsConfigurable.service.llama.promptCache.comment"))
         .addComponentFillVertically(new JPanel(), 0)
         .getPanel();
   }
@@ -60,6 +67,7 @@ public class LlamaRequestPreferencesForm {
     topPField.setText(String.valueOf((state.getTopP())));
     minPField.setText(String.valueOf((state.getMinP())));
     repeatPenaltyField.setText(String.valueOf((state.getRepeatPenalty())));
+    promptCacheCheckBox.setSelected(state.isPromptCacheEnabled());
   }
 
   public int getTopK() {
@@ -78,6 +86,10 @@ public class LlamaRequestPreferencesForm {
     return Double.parseDouble(repeatPenaltyField.getText());
   }
 
+  public boolean isPromptCacheEnabled() {
+    return promptCacheCheckBox.isSelected();
+  }
+
   private JLabel createComment(String messageKey) {
     var comment = ComponentPanelBuilder.createCommentComponent(
         CodeGPTBundle.get(messageKey), true);
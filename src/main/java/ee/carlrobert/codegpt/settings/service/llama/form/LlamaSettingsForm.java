@@ -33,6 +33,7 @@ public class LlamaSettingsForm extends JPanel {
     state.setTopP(llamaRequestPreferencesForm.getTopP());
     state.setMinP(llamaRequestPreferencesForm.getMinP());
     state.setRepeatPenalty(llamaRequestPreferencesForm.getRepeatPenalty());
+    state.setPromptCacheEnabled(llamaRequestPreferencesForm.isPromptCacheEnabled());
 
     state.setRemoteModelPromptTemplate(llamaServerPreferencesForm.getPromptTemplate());
     state.setRemoteModelInfillPromptTemplate(llamaServerPreferencesForm.getInfillPromptTemplate());
@@ -8,6 +8,7 @@ import com.intellij.ui.content.ContentManagerEvent;
 import com.intellij.ui.content.ContentManagerListener;
 import ee.carlrobert.codegpt.toolwindow.chat.ChatToolWindowPanel;
 import ee.carlrobert.codegpt.toolwindow.conversations.ConversationsToolWindow;
+import ee.carlrobert.codegpt.toolwindow.latency.CompletionLatencyToolWindowPanel;
 import javax.swing.JComponent;
 import org.jetbrains.annotations.NotNull;
 
@@ -16,15 +17,20 @@ public class ProjectToolWindowFactory implements ToolWindowFactory, DumbAware {
   public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
     var chatToolWindowPanel = new ChatToolWindowPanel(project, toolWindow.getDisposable());
     var conversationsToolWindow = new ConversationsToolWindow(project);
+    var completionLatencyPanel = new CompletionLatencyToolWindowPanel(project);
 
     addContent(toolWindow, chatToolWindowPanel, "Chat");
     addContent(toolWindow, conversationsToolWindow.getContent(), "Chat History");
+    addContent(toolWindow, completionLatencyPanel, "Completion Latency");
     toolWindow.addContentManagerListener(new ContentManagerListener() {
       public void selectionChanged(@NotNull ContentManagerEvent event) {
         var content = event.getContent();
         if ("Chat History".equals(content.getTabName()) && content.isSelected()) {
           conversationsToolWindow.refresh();
         }
+        if ("Completion Latency".equals(content.getTabName()) && content.isSelected()) {
+          completionLatencyPanel.refresh();
+        }
       }
     });
   }
@@ -8,6 +8,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.SelectionModel;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.JBColor;
 import com.intellij.util.ui.JBUI;
@@ -54,6 +55,8 @@ import org.jetbrains.annotations.Nullable;
 public class ChatToolWindowTabPanel implements Disposable {
 
   private static final Logger LOG = Logger.getInstance(ChatToolWindowTabPanel.class);
+  private static final int ESTIMATED_MESSAGE_HEADER_HEIGHT = 80;
+  private static final int ESTIMATED_LINE_HEIGHT = 18;
 
   private final ChatSession chatSession;
 
@@ -366,15 +369,29 @@ public class ChatToolWindowTabPanel implements Disposable {
 
   private void displayConversation() {
     clearWindow();
-    conversation.getMessages().forEach(message -> {
-      var messagePanel = toolWindowScrollablePanel.addMessage(message.getId());
-      messagePanel.add(getUserMessagePanel(message));
-      messagePanel.add(getResponseMessagePanel(message));
-    });
+    conversation.getMessages().forEach(message ->
+        toolWindowScrollablePanel.addMessage(
+            message.getId(),
+            messageDisposable -> List.of(
+                getUserMessagePanel(message, messageDisposable),
+                getResponseMessagePanel(message, messageDisposable)),
+            getEstimatedMessageHeight(message),
+            this));
   }
 
-  private UserMessagePanel getUserMessagePanel(Message message) {
-    var userMessagePanel = new UserMessagePanel(project, message, this);
+  private int getEstimatedMessageHeight(Message message) {
+    var lineCount = 0;
+    if (message.getPrompt() != null) {
+      lineCount += StringUtil.countNewLines(message.getPrompt()) + 1;
+    }
+    if (message.getResponse() != null) {
+      lineCount += StringUtil.countNewLines(message.getResponse()) + 1;
+    }
+    return JBUI.scale(ESTIMATED_MESSAGE_HEADER_HEIGHT + lineCount * ESTIMATED_LINE_HEIGHT);
+  }
+
+  private UserMessagePanel getUserMessagePanel(Message message, Disposable parentDisposable) {
+    var userMessagePanel = new UserMessagePanel(project, message, parentDisposable);
     userMessagePanel.addCopyAction(() -> CopyAction.copyToClipboard(message.getPrompt()));
     userMessagePanel.addReloadAction(() -> reloadMessage(
         ChatCompletionParameters.builder(conversation, message)
@@ -389,10 +406,12 @@ public class ChatToolWindowTabPanel implements Disposable {
     return userMessagePanel;
   }
 
-  private ResponseMessagePanel getResponseMessagePanel(Message message) {
+  private ResponseMessagePanel getResponseMessagePanel(
+      Message message,
+      Disposable parentDisposable) {
     var response = message.getResponse() == null ? "" : message.getResponse();
     var messageResponseBody =
-        new ChatMessageResponseBody(project, this).withResponse(response);
+        new ChatMessageResponseBody(project, parentDisposable).withResponse(response);
 
     messageResponseBody.hideCaret();
 
@@ -1,6 +0,0 @@
-package ee.carlrobert.codegpt.toolwindow.chat;
-
-public enum StreamResponseType {
-  CODE,
-  TEXT
-}
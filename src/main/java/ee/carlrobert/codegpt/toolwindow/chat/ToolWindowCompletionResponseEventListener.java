@@ -6,10 +6,8 @@ import static java.util.Objects.requireNonNull;
 import com.intellij.openapi.application.*;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.fileEditor.FileDocumentManager;
-import com.intellij.openapi.vfs.VfsUtil;
 import ee.carlrobert.codegpt.EncodingManager;
+import ee.carlrobert.codegpt.TokenCountSession;
 import ee.carlrobert.codegpt.codecompletions.CompletionProgressNotifier;
 import ee.carlrobert.codegpt.completions.ChatCompletionParameters;
 import ee.carlrobert.codegpt.completions.CompletionResponseEventListener;
@@ -25,9 +23,7 @@ import ee.carlrobert.codegpt.toolwindow.ui.UserMessagePanel;
 import ee.carlrobert.codegpt.ui.OverlayUtil;
 import ee.carlrobert.codegpt.ui.textarea.UserInputPanel;
 import ee.carlrobert.llm.client.openai.completion.ErrorDetails;
-import kotlin.Unit;
 
-import java.io.File;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
@@ -39,8 +35,8 @@ abstract class ToolWindowCompletionResponseEventListener implements
             ToolWindowCompletionResponseEventListener.class);
     private static final int UPDATE_INTERVAL_MS = 8;
 
-    private final Project project;private final StringBuilder messageBuilder = new StringBuilder();
-    private final EncodingManager encodingManager;
+    private final Project project;
+    private final TokenCountSession responseTokenCounter;
 
     private final ResponseMessagePanel responsePanel;
     private final UserMessagePanel userMessagePanel;
@@ -59,7 +55,7 @@ abstract class ToolWindowCompletionResponseEventListener implements
             ResponseMessagePanel responsePanel,
             TotalTokensPanel totalTokensPanel,
             UserInputPanel textArea) {
-        this.encodingManager = EncodingManager.getInstance();
+        this.responseTokenCounter = EncodingManager.getInstance().createTokenCountSession();
         this.project = project;
         this.userMessagePanel = userMessagePanel;
         this.responsePanel = responsePanel;
@@ -72,27 +68,7 @@ abstract class ToolWindowCompletionResponseEventListener implements
 
     @Override
     public void handleRequestOpen() {
-        try {
-            // Code that modifies UI or interacts with Swing components
-            var homeDirectory = System.getProperty("user.home");
-            var file = new File(homeDirectory + "/code-gpt-output.md");
-            var documentManager = FileDocumentManager.getInstance();
-            var virtualFile = VfsUtil.findFileByIoFile(file, true);
-            ActionsKt.invokeLater(null, () -> {
-                ActionsKt.runUndoTransparentWriteAction(() -> {
-                    assert virtualFile != null;
-                    var document = documentManager.getDocument(virtualFile);
-                    assert document != null;
-                    document.insertString(document.getTextLength(), "\n## AI\n");
-                    virtualFile.refresh(false, false);
-                    return Unit.INSTANCE;
-                });
-                return Unit.INSTANCE;
-            });
-        } catch (Exception e) {
-            System.out.println("AAA");
-            System.out.println(e.getMessage());
-        }
+        ChatTranscriptWriter.getInstance().startSection("\n## AI\n");
         updateTimer.start();
     }
 
@@ -101,11 +77,10 @@ abstract class ToolWindowCompletionResponseEventListener implements
         streamResponseReceived = true;
 
         try {
-            messageBuilder.append(partialMessage);
-            var ongoingTokens = encodingManager.countTokens(messageBuilder.toString());
+            responseTokenCounter.append(partialMessage);
             messageBuffer.offer(partialMessage);
             ApplicationManager.getApplication().invokeLater(() ->
-                    totalTokensPanel.update(totalTokensPanel.getTokenDetails().getTotal() + ongoingTokens)
+                    totalTokensPanel.updateResponseTokens(responseTokenCounter)
             );
         } catch (Exception e) {
             responseContainer.displayError("Something went wrong.");
@@ -153,7 +128,10 @@ abstract class ToolWindowCompletionResponseEventListener implements
         ApplicationManager.getApplication().invokeLater(() -> {
             try {
                 responsePanel.enableAllActions(true);
-                if (!streamResponseReceived && !fullMessage.isEmpty()) {
+                if (streamResponseReceived) {
+                    flushBufferedMessages();
+                    responseContainer.finishStreaming();
+                } else if (!fullMessage.isEmpty()) {
                     responseContainer.withResponse(fullMessage);
                 }
                 totalTokensPanel.updateUserPromptTokens(textArea.getText());
@@ -175,30 +153,19 @@ abstract class ToolWindowCompletionResponseEventListener implements
         if (messageBuffer.isEmpty()) {
             if (stopped) {
                 updateTimer.stop();
-                try {
-                    var homeDirectory = System.getProperty("user.home");
-                    var file = new File(homeDirectory + "/code-gpt-output.md");
-                    var documentManager = FileDocumentManager.getInstance();
-                    var virtualFile = VfsUtil.findFileByIoFile(file, true);
-                    ActionsKt.invokeLater(null, () -> {
-                        ActionsKt.runUndoTransparentWriteAction(() -> {
-                            assert virtualFile != null;
-                            var document = documentManager.getDocument(virtualFile);
-                            assert document != null;
-                            document.insertString(document.getTextLength(), "\n## End AI\n");
-                            virtualFile.refresh(false, false);
-                            return Unit.INSTANCE;
-                        });
-                        return Unit.INSTANCE;
-                    });
-                } catch (Exception e) {
-                    System.out.println("BBB");
-                    System.out.println(e.getMessage());
-                }
+                ChatTranscriptWriter.getInstance().append("\n## End AI\n");
             }
             return;
         }
 
+        flushBufferedMessages();
+    }
+
+    private void flushBufferedMessages() {
+        if (messageBuffer.isEmpty()) {
+            return;
+        }
+
         StringBuilder accumulatedMessage = new StringBuilder();
         String message;
         while ((message = messageBuffer.poll()) != null) {
@@ -11,8 +11,8 @@ import com.intellij.openapi.actionSystem.ActionToolbar;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
 import com.intellij.openapi.editor.ex.EditorEx;
 import com.intellij.openapi.editor.impl.ContextMenuPopupHandler;
@@ -24,6 +24,7 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.ui.ColorUtil;
 import com.intellij.ui.IdeBorderFactory;
 import com.intellij.ui.components.ActionLink;
+import com.intellij.util.Alarm;
 import com.intellij.util.ui.JBUI;
 import ee.carlrobert.codegpt.CodeGPTBundle;
 import ee.carlrobert.codegpt.actions.toolwindow.ReplaceCodeInMainEditorAction;
@@ -34,14 +35,19 @@ import ee.carlrobert.codegpt.toolwindow.chat.editor.actions.EditAction;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.actions.InsertAtCaretAction;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.actions.NewFileAction;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.actions.ReplaceSelectionAction;
-import ee.carlrobert.codegpt.util.EditorUtil;
 import java.awt.BorderLayout;
 import javax.swing.JPanel;
 import org.jetbrains.annotations.NotNull;
 
 public class ResponseEditorPanel extends JPanel implements Disposable {
 
+  private static final int FLUSH_DELAY_MS = 16;
+
+  private final Project project;
   private final Editor editor;
+  private final ContextMenuPopupHandler popupHandler;
+  private final Alarm flushAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+  private final StringBuilder pendingCode = new StringBuilder();
 
   public ResponseEditorPanel(
       Project project,
@@ -50,11 +56,11 @@ public class ResponseEditorPanel extends JPanel implements Disposable {
       boolean readOnly,
       Disposable disposableParent) {
     super(new BorderLayout());
+    this.project = project;
     setBorder(JBUI.Borders.empty(8, 0));
     setOpaque(false);
 
-    editor = EditorUtil.createEditor(
-        project,
+    editor = ResponseEditorPool.getInstance(project).acquire(
         findLanguageExtensionMapping(markdownLanguage).getValue(),
         StringUtil.convertLineSeparators(code));
     var group = new DefaultActionGroup();
@@ -66,11 +72,12 @@ public class ResponseEditorPanel extends JPanel implements Disposable {
         group.addAll(((ActionGroup) originalGroup).getChildren(null));
       }
     }
+    popupHandler = new ContextMenuPopupHandler.Simple(group);
     configureEditor(
         project,
         (EditorEx) editor,
         readOnly,
-        new ContextMenuPopupHandler.Simple(group),
+        popupHandler,
         findLanguageExtensionMapping(markdownLanguage).getValue());
     add(editor.getComponent(), BorderLayout.CENTER);
 
@@ -79,13 +86,49 @@ public class ResponseEditorPanel extends JPanel implements Disposable {
 
   @Override
   public void dispose() {
-    EditorFactory.getInstance().releaseEditor(editor);
+    ((EditorEx) editor).uninstallPopupHandler(popupHandler);
+    ResponseEditorPool.getInstance(project).release(editor);
   }
 
   public Editor getEditor() {
     return editor;
   }
 
+  /**
+   * Appends streamed code to the end of the editor. Appends are batched into a single write
+   * action per frame, and the editor's highlighter relexes only from the first changed line.
+   */
+  public void appendCode(String code) {
+    if (code.isEmpty()) {
+      return;
+    }
+    pendingCode.append(code);
+    if (flushAlarm.isEmpty()) {
+      flushAlarm.addRequest(this::flushPendingCode, FLUSH_DELAY_MS);
+    }
+  }
+
+  /**
+   * Writes the remaining streamed code and lays out the panel for its final size.
+   */
+  public void finishStreaming() {
+    flushAlarm.cancelAllRequests();
+    flushPendingCode();
+    revalidate();
+    repaint();
+  }
+
+  private void flushPendingCode() {
+    if (pendingCode.isEmpty() || editor.isDisposed()) {
+      return;
+    }
+    var code = pendingCode.toString();
+    pendingCode.setLength(0);
+    var document = editor.getDocument();
+    WriteCommandAction.runWriteCommandAction(project, () ->
+        document.insertString(document.getTextLength(), code));
+  }
+
   private void configureEditor(
       Project project,
       EditorEx editorEx,
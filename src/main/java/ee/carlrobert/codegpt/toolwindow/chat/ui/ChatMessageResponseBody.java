@@ -1,6 +1,5 @@
 package ee.carlrobert.codegpt.toolwindow.chat.ui;
 
-import static ee.carlrobert.codegpt.toolwindow.chat.StreamResponseType.CODE;
 import static ee.carlrobert.codegpt.util.MarkdownUtil.convertMdToHtml;
 import static java.lang.String.format;
 import static javax.swing.event.HyperlinkEvent.EventType.ACTIVATED;
@@ -13,17 +12,14 @@ import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
-import com.intellij.openapi.application.ActionsKt;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.CommandProcessor;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.options.ShowSettingsUtil;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
-import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.PopupHandler;
 import com.intellij.ui.components.JBLabel;
@@ -42,8 +38,9 @@ import ee.carlrobert.codegpt.settings.GeneralSettings;
 import ee.carlrobert.codegpt.settings.GeneralSettingsConfigurable;
 import ee.carlrobert.codegpt.settings.service.ServiceType;
 import ee.carlrobert.codegpt.telemetry.TelemetryAction;
-import ee.carlrobert.codegpt.toolwindow.chat.StreamParser;
-import ee.carlrobert.codegpt.toolwindow.chat.ThinkingOutputParser;
+import ee.carlrobert.codegpt.toolwindow.chat.ChatTranscriptWriter;
+import ee.carlrobert.codegpt.toolwindow.chat.StreamEvent;
+import ee.carlrobert.codegpt.toolwindow.chat.StreamLexer;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.ResponseEditorPanel;
 import ee.carlrobert.codegpt.toolwindow.chat.editor.actions.CopyAction;
 import ee.carlrobert.codegpt.toolwindow.ui.ResponseBodyProgressPanel;
@@ -52,10 +49,10 @@ import ee.carlrobert.codegpt.ui.ThoughtProcessPanel;
 import ee.carlrobert.codegpt.ui.UIUtil;
 import ee.carlrobert.codegpt.util.EditorUtil;
 import ee.carlrobert.codegpt.util.MarkdownUtil;
+import ee.carlrobert.codegpt.util.StreamingMarkdownRenderer;
 
 import java.awt.BorderLayout;
 import java.awt.event.MouseEvent;
-import java.io.File;
 import java.util.Objects;
 import java.util.stream.Stream;
 import javax.swing.BoxLayout;
@@ -64,7 +61,6 @@ import javax.swing.JEditorPane;
 import javax.swing.JPanel;
 import javax.swing.JTextPane;
 
-import kotlin.Unit;
 import org.jetbrains.annotations.NotNull;
 
 public class ChatMessageResponseBody extends JPanel {
@@ -73,14 +69,16 @@ public class ChatMessageResponseBody extends JPanel {
 
     private final Project project;
     private final Disposable parentDisposable;
-    private final StreamParser streamParser;
-    private final ThinkingOutputParser thinkingOutputParser;
+    private final StreamLexer streamLexer;
+    private final StringBuilder thoughtProcessBuilder = new StringBuilder();
     private final boolean readOnly;
     private final DefaultListModel<WebSearchEventDetails> webpageListModel = new DefaultListModel<>();
     private final WebpageList webpageList = new WebpageList(webpageListModel);
     private final ResponseBodyProgressPanel progressPanel = new ResponseBodyProgressPanel();
     private ResponseEditorPanel currentlyProcessedEditorPanel;
     private JEditorPane currentlyProcessedTextPane;
+    private StreamingMarkdownRenderer markdownRenderer;
+    private String currentCodeLanguage = "";
     private JPanel webpageListPanel;
 
     public ChatMessageResponseBody(Project project, Disposable parentDisposable) {
@@ -95,8 +93,7 @@ public class ChatMessageResponseBody extends JPanel {
             Disposable parentDisposable) {
         this.project = project;
         this.parentDisposable = parentDisposable;
-        this.streamParser = new StreamParser();
-        this.thinkingOutputParser = new ThinkingOutputParser();
+        this.streamLexer = new StreamLexer(true, true);
         this.readOnly = readOnly;
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
         setOpaque(false);
@@ -129,39 +126,22 @@ public class ChatMessageResponseBody extends JPanel {
     }
 
     public void updateMessage(String partialMessage) {
-
-        var homeDirectory = System.getProperty("user.home");
-        var file = new File(homeDirectory + "/code-gpt-output.md");
-        var documentManager = FileDocumentManager.getInstance();
-        var virtualFile = VfsUtil.findFileByIoFile(file, true);
-        try {
-            com.intellij.openapi.application.ActionsKt.invokeLater(null, () -> {
-                ActionsKt.runUndoTransparentWriteAction(() -> {
-                    var document = documentManager.getDocument(virtualFile);
-                    if (document != null) {
-                        com.intellij.openapi.application.ActionsKt.runUndoTransparentWriteAction(() -> {
-                            document.insertString(document.getTextLength(), partialMessage);
-                            virtualFile.refresh(false, false);
-                            return 0;
-                        });
-                    }
-                    return Unit.INSTANCE;
-                });
-                return Unit.INSTANCE;
-            });
-        } catch (Exception e) {
-        }
+        ChatTranscriptWriter.getInstance().append(partialMessage);
         if (partialMessage.isEmpty()) {
             return;
         }
 
-        var processedPartialMessage = processThinkingOutput(partialMessage);
-        if (processedPartialMessage.isEmpty()) {
-            return;
+        for (var event : streamLexer.process(partialMessage)) {
+            processStreamEvent(event);
         }
+    }
 
-        for (var item : streamParser.parse(processedPartialMessage)) {
-            processResponse(item.response(), CODE.equals(item.type()), true);
+    /**
+     * Displays what the lexer held back at the end of the last message, once the stream has ended.
+     */
+    public void finishStreaming() {
+        for (var event : streamLexer.finish()) {
+            processStreamEvent(event);
         }
     }
 
@@ -258,12 +238,16 @@ public class ChatMessageResponseBody extends JPanel {
         if (currentlyProcessedTextPane != null) {
             currentlyProcessedTextPane.getCaret().setVisible(false);
         }
+        if (currentlyProcessedEditorPanel != null) {
+            currentlyProcessedEditorPanel.finishStreaming();
+        }
     }
 
     public void clear() {
         removeAll();
 
-        streamParser.clear();
+        streamLexer.clear();
+        thoughtProcessBuilder.setLength(0);
         // TODO: First message might be code block
         prepareProcessingText(true);
         currentlyProcessedTextPane.setText(
@@ -273,26 +257,47 @@ public class ChatMessageResponseBody extends JPanel {
         revalidate();
     }
 
-    private String processThinkingOutput(String partialMessage) {
-        var processedChunk = thinkingOutputParser.processChunk(partialMessage);
-        var thoughtProcessPanel = getExistingThoughtProcessPanel();
-
-        if (thinkingOutputParser.isThinking()) {
-            progressPanel.setVisible(false);
-
-            if (thoughtProcessPanel == null) {
-                thoughtProcessPanel = new ThoughtProcessPanel();
-                add(thoughtProcessPanel);
+    private void processStreamEvent(StreamEvent event) {
+        if (event instanceof StreamEvent.Thinking thinking) {
+            thoughtProcessBuilder.append(thinking.getText());
+            updateThoughtProcess();
+        } else if (event instanceof StreamEvent.ThinkingEnd) {
+            var thoughtProcessPanel = getExistingThoughtProcessPanel();
+            if (thoughtProcessPanel != null) {
+                thoughtProcessPanel.setFinished();
+            }
+        } else if (event instanceof StreamEvent.Text text) {
+            if (currentlyProcessedTextPane == null) {
+                prepareProcessingText(true);
+            }
+            markdownRenderer.append(text.getText());
+        } else if (event instanceof StreamEvent.CodeFenceOpen codeFenceOpen) {
+            hideCaret();
+            currentlyProcessedTextPane = null;
+            currentCodeLanguage = codeFenceOpen.getLanguage();
+        } else if (event instanceof StreamEvent.Code code) {
+            if (currentlyProcessedEditorPanel == null) {
+                prepareProcessingCode(code.getCode(), currentCodeLanguage);
             } else {
-                thoughtProcessPanel.updateText(thinkingOutputParser.getThoughtProcess());
+                currentlyProcessedEditorPanel.appendCode(code.getCode());
             }
+        } else if (event instanceof StreamEvent.CodeFenceClose) {
+            if (currentlyProcessedEditorPanel != null) {
+                currentlyProcessedEditorPanel.finishStreaming();
+            }
+            currentlyProcessedEditorPanel = null;
         }
+    }
 
-        if (thoughtProcessPanel != null && thinkingOutputParser.isFinished()) {
-            thoughtProcessPanel.setFinished();
-        }
+    private void updateThoughtProcess() {
+        progressPanel.setVisible(false);
 
-        return processedChunk;
+        var thoughtProcessPanel = getExistingThoughtProcessPanel();
+        if (thoughtProcessPanel == null) {
+            thoughtProcessPanel = new ThoughtProcessPanel();
+            add(thoughtProcessPanel);
+        }
+        thoughtProcessPanel.updateText(thoughtProcessBuilder.toString());
     }
 
     private ThoughtProcessPanel getExistingThoughtProcessPanel() {
@@ -315,13 +320,16 @@ public class ChatMessageResponseBody extends JPanel {
         var child = document.getChildOfType(FencedCodeBlock.class);
         if (child != null) {
             var codeBlock = ((FencedCodeBlock) child);
-            var code = codeBlock.getContentChars().toString();
-            if (!code.isEmpty()) {
-                if (currentlyProcessedEditorPanel == null) {
-                    prepareProcessingCode(code, codeBlock.getInfo().toString());
-                }
-                EditorUtil.updateEditorDocument(currentlyProcessedEditorPanel.getEditor(), code);
+            processCode(codeBlock.getContentChars().toString(), codeBlock.getInfo().toString());
+        }
+    }
+
+    private void processCode(String code, String markdownLanguage) {
+        if (!code.isEmpty()) {
+            if (currentlyProcessedEditorPanel == null) {
+                prepareProcessingCode(code, markdownLanguage);
             }
+            EditorUtil.updateEditorDocument(currentlyProcessedEditorPanel.getEditor(), code);
         }
     }
 
@@ -336,6 +344,7 @@ public class ChatMessageResponseBody extends JPanel {
     private void prepareProcessingText(boolean caretVisible) {
         currentlyProcessedEditorPanel = null;
         currentlyProcessedTextPane = createTextPane("", caretVisible);
+        markdownRenderer = new StreamingMarkdownRenderer(currentlyProcessedTextPane);
         add(currentlyProcessedTextPane);
     }
 
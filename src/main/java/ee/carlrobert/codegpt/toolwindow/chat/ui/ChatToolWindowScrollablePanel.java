@@ -2,6 +2,7 @@ package ee.carlrobert.codegpt.toolwindow.chat.ui;
 
 import static javax.swing.event.HyperlinkEvent.EventType.ACTIVATED;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.options.ShowSettingsUtil;
 import com.intellij.openapi.roots.ui.componentsList.components.ScrollablePanel;
 import com.intellij.openapi.roots.ui.componentsList.layout.VerticalStackLayout;
@@ -15,22 +16,46 @@ import ee.carlrobert.codegpt.settings.service.codegpt.CodeGPTServiceConfigurable
 import ee.carlrobert.codegpt.toolwindow.ui.ResponseMessagePanel;
 import ee.carlrobert.codegpt.ui.UIUtil;
 import ee.carlrobert.codegpt.util.ApplicationUtil;
+import java.awt.Point;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Function;
 import javax.swing.BoxLayout;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeListener;
 
 public class ChatToolWindowScrollablePanel extends ScrollablePanel {
 
   private final Map<UUID, JPanel> visibleMessagePanels = new HashMap<>();
+  private final ChangeListener viewportListener = e -> scheduleVirtualMessagesUpdate();
+  private boolean virtualMessagesUpdateScheduled;
 
   public ChatToolWindowScrollablePanel() {
     super(new VerticalStackLayout());
   }
 
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    if (getParent() instanceof JViewport viewport) {
+      viewport.addChangeListener(viewportListener);
+    }
+  }
+
+  @Override
+  public void removeNotify() {
+    if (getParent() instanceof JViewport viewport) {
+      viewport.removeChangeListener(viewportListener);
+    }
+    super.removeNotify();
+  }
+
   public void displayLandingView(JComponent landingView) {
     clearAll();
     add(landingView);
@@ -64,7 +89,12 @@ public class ChatToolWindowScrollablePanel extends ScrollablePanel {
   }
 
   public ResponseMessagePanel getResponseMessagePanel(UUID messageId) {
-    return (ResponseMessagePanel) Arrays.stream(visibleMessagePanels.get(messageId).getComponents())
+    var messagePanel = visibleMessagePanels.get(messageId);
+    if (messagePanel instanceof VirtualMessagePanel virtualMessagePanel) {
+      // The response is about to be streamed again, so it has to stay in place
+      virtualMessagePanel.pin();
+    }
+    return (ResponseMessagePanel) Arrays.stream(messagePanel.getComponents())
         .filter(ResponseMessagePanel.class::isInstance)
         .findFirst().orElseThrow();
   }
@@ -77,13 +107,36 @@ public class ChatToolWindowScrollablePanel extends ScrollablePanel {
     return messageWrapper;
   }
 
+  /**
+   * Adds a message whose components are built by the given factory only while the message is near
+   * the viewport. The components are disposed through the disposable passed to the factory once
+   * the message is scrolled away.
+   */
+  public void addMessage(
+      UUID messageId,
+      Function<Disposable, List<JComponent>> contentFactory,
+      int estimatedHeight,
+      Disposable parentDisposable) {
+    var messagePanel = new VirtualMessagePanel(contentFactory, estimatedHeight, parentDisposable);
+    add(messagePanel);
+    visibleMessagePanels.put(messageId, messagePanel);
+    scheduleVirtualMessagesUpdate();
+  }
+
   public void removeMessage(UUID messageId) {
-    remove(visibleMessagePanels.get(messageId));
+    var messagePanel = visibleMessagePanels.get(messageId);
+    remove(messagePanel);
     update();
     visibleMessagePanels.remove(messageId);
+    if (messagePanel instanceof VirtualMessagePanel virtualMessagePanel) {
+      virtualMessagePanel.discard();
+    }
   }
 
   public void clearAll() {
+    visibleMessagePanels.values().stream()
+        .filter(VirtualMessagePanel.class::isInstance)
+        .forEach(it -> ((VirtualMessagePanel) it).discard());
     visibleMessagePanels.clear();
     removeAll();
     update();
@@ -93,4 +146,64 @@ public class ChatToolWindowScrollablePanel extends ScrollablePanel {
     repaint();
     revalidate();
   }
+
+  private void scheduleVirtualMessagesUpdate() {
+    if (virtualMessagesUpdateScheduled) {
+      return;
+    }
+    virtualMessagesUpdateScheduled = true;
+    SwingUtilities.invokeLater(() -> {
+      virtualMessagesUpdateScheduled = false;
+      updateVirtualMessages();
+    });
+  }
+
+  /**
+   * Builds the messages within a viewport height of the viewport and releases the ones further
+   * than two viewport heights away. Height changes of the messages above the viewport are
+   * compensated by moving the view, so that the visible content stays in place.
+   */
+  private void updateVirtualMessages() {
+    var visibleRect = getVisibleRect();
+    if (visibleRect.isEmpty()) {
+      return;
+    }
+
+    var changed = false;
+    var heightsAbove = new HashMap<VirtualMessagePanel, Integer>();
+    for (var component : getComponents()) {
+      if (!(component instanceof VirtualMessagePanel messagePanel) || messagePanel.isPinned()) {
+        continue;
+      }
+
+      var bounds = messagePanel.getBounds();
+      var distance = Math.max(
+          visibleRect.y - (bounds.y + bounds.height),
+          bounds.y - (visibleRect.y + visibleRect.height));
+      if (messagePanel.isRealized() && distance > 2 * visibleRect.height) {
+        messagePanel.release();
+      } else if (!messagePanel.isRealized() && distance < visibleRect.height) {
+        messagePanel.realize();
+      } else {
+        continue;
+      }
+      changed = true;
+      if (bounds.y + bounds.height <= visibleRect.y) {
+        heightsAbove.put(messagePanel, bounds.height);
+      }
+    }
+
+    if (!changed) {
+      return;
+    }
+    if (!heightsAbove.isEmpty() && getParent() instanceof JViewport viewport) {
+      viewport.validate();
+      var heightChange = heightsAbove.entrySet().stream()
+          .mapToInt(it -> it.getKey().getHeight() - it.getValue())
+          .sum();
+      var position = viewport.getViewPosition();
+      viewport.setViewPosition(new Point(position.x, position.y + heightChange));
+    }
+    update();
+  }
 }
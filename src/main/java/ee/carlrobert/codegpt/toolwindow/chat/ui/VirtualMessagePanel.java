@@ -0,0 +1,90 @@
+package ee.carlrobert.codegpt.toolwindow.chat.ui;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import java.awt.Dimension;
+import java.util.List;
+import java.util.function.Function;
+import javax.swing.BoxLayout;
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A message of the conversation whose components are only built while it is near the viewport.
+ * Otherwise, it is an empty placeholder with the height the message had when it was last shown.
+ */
+public class VirtualMessagePanel extends JPanel {
+
+  private final Function<Disposable, List<JComponent>> contentFactory;
+  private final Disposable parentDisposable;
+  private @Nullable Disposable contentDisposable;
+  private int placeholderHeight;
+  private boolean pinned;
+
+  public VirtualMessagePanel(
+      Function<Disposable, List<JComponent>> contentFactory,
+      int estimatedHeight,
+      Disposable parentDisposable) {
+    this.contentFactory = contentFactory;
+    this.placeholderHeight = estimatedHeight;
+    this.parentDisposable = parentDisposable;
+    setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
+  }
+
+  public boolean isRealized() {
+    return contentDisposable != null;
+  }
+
+  /**
+   * Keeps the message built from now on, for messages whose components are updated afterwards.
+   */
+  public void pin() {
+    pinned = true;
+    realize();
+  }
+
+  public boolean isPinned() {
+    return pinned;
+  }
+
+  public void realize() {
+    if (isRealized()) {
+      return;
+    }
+    contentDisposable = Disposer.newDisposable(parentDisposable, "Chat message");
+    contentFactory.apply(contentDisposable).forEach(this::add);
+  }
+
+  /**
+   * Replaces the message components with a placeholder. Disposing them releases the editors of
+   * their code blocks.
+   */
+  public void release() {
+    if (!isRealized() || pinned) {
+      return;
+    }
+    if (getHeight() > 0) {
+      placeholderHeight = getHeight();
+    }
+    removeAll();
+    Disposer.dispose(contentDisposable);
+    contentDisposable = null;
+  }
+
+  /**
+   * Releases the message components, pinned or not, once the message is removed.
+   */
+  public void discard() {
+    pinned = false;
+    release();
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    if (isRealized()) {
+      return super.getPreferredSize();
+    }
+    return new Dimension(0, placeholderHeight);
+  }
+}
@@ -1,5 +1,7 @@
 package ee.carlrobert.codegpt
 
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.service
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.editor.EditorKind
 import com.intellij.openapi.editor.SelectionModel
@@ -7,8 +9,15 @@ import com.intellij.openapi.editor.event.EditorFactoryEvent
 import com.intellij.openapi.editor.event.EditorFactoryListener
 import com.intellij.openapi.editor.event.SelectionEvent
 import com.intellij.openapi.editor.event.SelectionListener
+import com.intellij.openapi.project.Project
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.util.messages.Topic
+import ee.carlrobert.codegpt.codecompletions.CodeCompletionService
+import ee.carlrobert.codegpt.codecompletions.DocumentSyntaxTreeService
+import ee.carlrobert.codegpt.completions.HttpTransportService
+import ee.carlrobert.codegpt.settings.GeneralSettings
+import java.awt.event.FocusAdapter
+import java.awt.event.FocusEvent
 
 sealed interface EditorNotifier {
     interface SelectionChange : EditorNotifier {
@@ -35,6 +44,8 @@ class CodeGPTEditorFactoryListener : EditorFactoryListener {
             return
         }
 
+        service<DocumentSyntaxTreeService>().track(event.editor)
+
         val project = event.editor.project ?: return
         event.editor.selectionModel.addSelectionListener(object : SelectionListener {
             override fun selectionChanged(e: SelectionEvent) {
@@ -44,6 +55,22 @@ class CodeGPTEditorFactoryListener : EditorFactoryListener {
                     .selectionChanged(e.editor.selectionModel, virtualFile)
             }
         })
+        event.editor.contentComponent.addFocusListener(object : FocusAdapter() {
+            override fun focusGained(e: FocusEvent) {
+                warmUpCompletionConnection(project)
+            }
+        })
+    }
+
+    private fun warmUpCompletionConnection(project: Project) {
+        ApplicationManager.getApplication().executeOnPooledThread {
+            if (project.isDisposed) return@executeOnPooledThread
+
+            val selectedService = GeneralSettings.getSelectedService()
+            if (project.service<CodeCompletionService>().isCodeCompletionsEnabled(selectedService)) {
+                HttpTransportService.getInstance().warmUp(selectedService)
+            }
+        }
     }
 
     override fun editorReleased(event: EditorFactoryEvent) {
@@ -51,6 +78,8 @@ class CodeGPTEditorFactoryListener : EditorFactoryListener {
             return
         }
 
+        service<DocumentSyntaxTreeService>().release(event.editor)
+
         val project = event.editor.project ?: return
         project.messageBus
             .syncPublisher(EditorNotifier.Released.TOPIC)
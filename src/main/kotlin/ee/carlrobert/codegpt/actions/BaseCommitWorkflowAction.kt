@@ -132,12 +132,17 @@ class CommitMessageEventListener(
     override fun onMessage(message: String, eventSource: EventSource) {
         val processedChunk = thinkingOutputParser.processChunk(message)
         if (processedChunk.isNotEmpty() && thinkingOutputParser.isFinished) {
-            messageBuilder.append(message)
+            messageBuilder.append(processedChunk)
             updateCommitMessage(messageBuilder.toString())
         }
     }
 
     override fun onComplete(result: StringBuilder) {
+        val remainingChunk = thinkingOutputParser.finish()
+        if (remainingChunk.isNotEmpty() && thinkingOutputParser.isFinished) {
+            messageBuilder.append(remainingChunk)
+            updateCommitMessage(messageBuilder.toString())
+        }
         if (messageBuilder.isEmpty()) {
             updateCommitMessage(result.toString())
         }
@@ -40,7 +40,11 @@ class EditCodeCompletionListener(
     }
 
     override fun onComplete(messageBuilder: StringBuilder) {
+        val remainingChunk = thinkingOutputParser.finish()
         runInEdt {
+            if (remainingChunk.isNotEmpty() && thinkingOutputParser.isFinished) {
+                handleDiff(remainingChunk)
+            }
             if (replacedLength == 0 && messageBuilder.isNotEmpty()) {
                 handleDiff(messageBuilder.toString())
             }
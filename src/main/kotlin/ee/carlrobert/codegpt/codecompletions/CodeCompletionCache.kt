@@ -0,0 +1,246 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.codeInsight.inline.completion.InlineCompletionRequest
+import com.intellij.openapi.application.readAction
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.util.UserDataHolderEx
+import ee.carlrobert.codegpt.CodeGPTKeys.CODE_COMPLETION_CACHE
+import okhttp3.sse.EventSource
+import java.util.concurrent.CompletableFuture
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Identifies the text window around the caret that a completion was requested for.
+ */
+class CodeCompletionCacheKey private constructor(
+    val filePath: String?,
+    val type: CompletionType,
+    val caretOffset: Int,
+    val prefixWindow: String,
+    val suffixWindow: String,
+) {
+
+    companion object {
+        const val WINDOW_SIZE = 512
+
+        fun create(
+            document: Document,
+            caretOffset: Int,
+            filePath: String?,
+            type: CompletionType
+        ): CodeCompletionCacheKey {
+            val prefixWindow =
+                document.getText(TextRange(max(0, caretOffset - WINDOW_SIZE), caretOffset))
+            val suffixWindow = document.getText(
+                TextRange(caretOffset, min(document.textLength, caretOffset + WINDOW_SIZE))
+            )
+            return CodeCompletionCacheKey(filePath, type, caretOffset, prefixWindow, suffixWindow)
+        }
+
+        suspend fun create(
+            request: InlineCompletionRequest,
+            type: CompletionType
+        ): CodeCompletionCacheKey = readAction {
+            create(
+                request.document,
+                request.editor.caretModel.offset,
+                request.file.virtualFile?.path,
+                type
+            )
+        }
+    }
+
+    private val hash = arrayOf(filePath, type, prefixWindow, suffixWindow).contentHashCode()
+
+    fun isLineSuffixBlank(): Boolean = suffixWindow.substringBefore('\n').isBlank()
+
+    /**
+     * Returns the text typed since the [previous] key was taken, or `null` if the caret has not
+     * moved forward over unchanged surroundings.
+     */
+    fun typedTextSince(previous: CodeCompletionCacheKey): String? {
+        val typedLength = caretOffset - previous.caretOffset
+        if (filePath != previous.filePath
+            || type != previous.type
+            || typedLength < 0
+            || typedLength > prefixWindow.length
+            || suffixWindow != previous.suffixWindow
+        ) {
+            return null
+        }
+
+        val overlap = min(prefixWindow.length - typedLength, previous.prefixWindow.length)
+        val prefixUnchanged = prefixWindow.regionMatches(
+            prefixWindow.length - typedLength - overlap,
+            previous.prefixWindow,
+            previous.prefixWindow.length - overlap,
+            overlap
+        )
+        return if (prefixUnchanged) prefixWindow.substring(prefixWindow.length - typedLength) else null
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is CodeCompletionCacheKey) return false
+        return hash == other.hash
+                && caretOffset == other.caretOffset
+                && type == other.type
+                && filePath == other.filePath
+                && prefixWindow == other.prefixWindow
+                && suffixWindow == other.suffixWindow
+    }
+
+    override fun hashCode(): Int = hash
+}
+
+/**
+ * Per-editor cache of received completions. Serves the still valid remainder of a previous
+ * completion while the user types through it, and lets a newer request attach to a stream that
+ * is still in flight instead of starting a new one.
+ */
+class CodeCompletionCache {
+
+    companion object {
+        private const val MAX_ENTRIES = 32
+
+        fun getInstance(editor: Editor): CodeCompletionCache {
+            CODE_COMPLETION_CACHE.get(editor)?.let { return it }
+            if (editor is UserDataHolderEx) {
+                return editor.putUserDataIfAbsent(CODE_COMPLETION_CACHE, CodeCompletionCache())
+            }
+            return CodeCompletionCache().also { CODE_COMPLETION_CACHE.set(editor, it) }
+        }
+    }
+
+    class InFlightCompletion(val key: CodeCompletionCacheKey) {
+        val result = CompletableFuture<String?>()
+
+        @Volatile
+        var eventSource: EventSource? = null
+
+        // Requests waiting for the result, guarded by the cache
+        internal var consumers = 1
+
+        private val receivedText = StringBuilder()
+
+        fun onReceived(text: String) {
+            synchronized(receivedText) { receivedText.append(text) }
+        }
+
+        /**
+         * Returns whether the stream can still complete the text typed since it was requested,
+         * that is, whether the typed text is a prefix of the text received so far or nothing was
+         * received yet.
+         */
+        fun isContinuedBy(typedText: String): Boolean = synchronized(receivedText) {
+            receivedText.isEmpty() || receivedText.startsWith(typedText)
+        }
+
+        fun cancel() {
+            eventSource?.cancel()
+            result.complete(null)
+        }
+    }
+
+    private class Entry(val key: CodeCompletionCacheKey, val completion: String) {
+
+        fun remainingAt(key: CodeCompletionCacheKey): String? {
+            val typedText = key.typedTextSince(this.key) ?: return null
+            if (typedText.length >= completion.length || !completion.startsWith(typedText)) {
+                return null
+            }
+            return completion.substring(typedText.length)
+        }
+    }
+
+    private val entries = object : LinkedHashMap<CodeCompletionCacheKey, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<CodeCompletionCacheKey, Entry>?) =
+            size > MAX_ENTRIES
+    }
+    private var inFlight: InFlightCompletion? = null
+
+    /**
+     * Returns the part of a previously received completion that is still valid at [key].
+     */
+    @Synchronized
+    fun get(key: CodeCompletionCacheKey): String? {
+        entries[key]?.let { return it.completion }
+        return entries.values.reversed().firstNotNullOfOrNull { it.remainingAt(key) }
+    }
+
+    @Synchronized
+    fun put(key: CodeCompletionCacheKey, completion: String) {
+        if (completion.isNotEmpty()) {
+            entries[key] = Entry(key, completion)
+        }
+    }
+
+    /**
+     * Returns the in-flight completion whose window [key] extends with text the stream can still
+     * complete, if any.
+     */
+    @Synchronized
+    fun findInFlight(key: CodeCompletionCacheKey): InFlightCompletion? {
+        return inFlight?.takeIf {
+            !it.result.isDone && key.typedTextSince(it.key)?.let(it::isContinuedBy) == true
+        }
+    }
+
+    /**
+     * Attaches a request to the in-flight completion whose window [key] extends, if any. The
+     * request has to [release] it once it no longer waits for the result.
+     */
+    @Synchronized
+    fun attachInFlight(key: CodeCompletionCacheKey): InFlightCompletion? {
+        return findInFlight(key)?.also { it.consumers++ }
+    }
+
+    /**
+     * Detaches a request from the in-flight completion. Once no request waits for it, the stream
+     * is cancelled, unless the user has typed forward from where it was requested with text the
+     * stream can still complete, since the request for the typed text is then expected to attach
+     * to it. [currentKey] is the window at the caret now, or null if the editor is gone.
+     */
+    @Synchronized
+    fun release(completion: InFlightCompletion, currentKey: CodeCompletionCacheKey?) {
+        completion.consumers--
+        if (completion.consumers > 0 || completion.result.isDone) {
+            return
+        }
+
+        val typedText = currentKey?.typedTextSince(completion.key)
+        if (typedText.isNullOrEmpty() || !completion.isContinuedBy(typedText)) {
+            completion.cancel()
+            if (inFlight === completion) {
+                inFlight = null
+            }
+        }
+    }
+
+    @Synchronized
+    fun startInFlight(key: CodeCompletionCacheKey): InFlightCompletion {
+        inFlight?.cancel()
+        return InFlightCompletion(key).also { inFlight = it }
+    }
+
+    @Synchronized
+    fun cancelInFlight() {
+        inFlight?.cancel()
+        inFlight = null
+    }
+
+    fun complete(completion: InFlightCompletion, result: String?) {
+        synchronized(this) {
+            if (result != null) {
+                put(completion.key, result)
+            }
+            if (inFlight === completion) {
+                inFlight = null
+            }
+        }
+        completion.result.complete(result)
+    }
+}
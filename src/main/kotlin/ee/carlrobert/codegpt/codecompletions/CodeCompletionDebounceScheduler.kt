@@ -0,0 +1,89 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.Service
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+
+/**
+ * Picks the inline completion debounce delay from the measured time-to-first-token of the
+ * selected provider and the user's typing cadence.
+ */
+@Service
+class CodeCompletionDebounceScheduler {
+
+    companion object {
+        private const val MIN_DELAY_MS = 75L
+        private const val MAX_DELAY_MS = 1000L
+        private const val LOCAL_DEFAULT_DELAY_MS = 150L
+        private const val REMOTE_DEFAULT_DELAY_MS = 600L
+        private const val MIN_SAMPLES = 5
+        private const val BURST_KEYSTROKES = 3
+        private const val MAX_KEYSTROKE_INTERVAL_MS = 2000L
+    }
+
+    private val timeToFirstToken = ConcurrentHashMap<ServiceType, RollingHistogram>()
+    private val keystrokeIntervals = RollingHistogram(128)
+
+    @Volatile
+    private var lastKeystrokeTime = 0L
+
+    fun recordKeystroke(timestamp: Long = System.currentTimeMillis()) {
+        val interval = timestamp - lastKeystrokeTime
+        lastKeystrokeTime = timestamp
+        // Longer gaps are pauses rather than part of the typing rhythm
+        if (interval in 1..MAX_KEYSTROKE_INTERVAL_MS) {
+            keystrokeIntervals.add(interval)
+        }
+    }
+
+    fun recordTimeToFirstToken(serviceType: ServiceType, millis: Long) {
+        getTimeToFirstToken(serviceType).add(millis)
+    }
+
+    fun getTimeToFirstToken(serviceType: ServiceType): RollingHistogram {
+        return timeToFirstToken.computeIfAbsent(serviceType) { RollingHistogram(64) }
+    }
+
+    fun getDelay(serviceType: ServiceType?): Duration {
+        val delay = maxOf(getProviderDelay(serviceType), getTypingDelay())
+        return delay.coerceIn(MIN_DELAY_MS, MAX_DELAY_MS).milliseconds
+    }
+
+    private fun getProviderDelay(serviceType: ServiceType?): Long {
+        val median = serviceType?.let { timeToFirstToken[it] }
+            ?.takeIf { it.size() >= MIN_SAMPLES }
+            ?.percentile(50.0)
+        if (median != null) {
+            // Fast servers can answer on almost every pause, slow ones are only worth calling
+            // once the user has settled
+            return median / 2
+        }
+
+        return when (serviceType) {
+            ServiceType.LLAMA_CPP, ServiceType.OLLAMA -> LOCAL_DEFAULT_DELAY_MS
+            else -> REMOTE_DEFAULT_DELAY_MS
+        }
+    }
+
+    /**
+     * While the user types faster than usual, waits longer than their typical gap between
+     * keystrokes, so that the request is dropped by the next keystroke instead of being sent.
+     */
+    private fun getTypingDelay(): Long {
+        if (keystrokeIntervals.size() < MIN_SAMPLES) {
+            return 0
+        }
+
+        val recentIntervals = keystrokeIntervals.latest(BURST_KEYSTROKES)
+        val medianInterval = keystrokeIntervals.percentile(50.0) ?: return 0
+        val typingBurst = recentIntervals.size == BURST_KEYSTROKES
+                && recentIntervals.all { it <= medianInterval }
+        if (!typingBurst) {
+            return 0
+        }
+
+        return (keystrokeIntervals.percentile(90.0) ?: return 0) * 3 / 2
+    }
+}
@@ -1,15 +1,16 @@
 package ee.carlrobert.codegpt.codecompletions
 
-import com.intellij.codeInsight.inline.completion.InlineCompletionRequest
 import com.intellij.notification.NotificationType
 import com.intellij.openapi.application.runInEdt
-import com.intellij.openapi.application.runWriteAction
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.thisLogger
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.util.TextRange
-import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
 import ee.carlrobert.codegpt.codecompletions.CompletionUtil.formatCompletion
+import ee.carlrobert.codegpt.codecompletions.CompletionUtil.isAcceptedByRepair
+import ee.carlrobert.codegpt.codecompletions.CompletionUtil.removeLeadingWhitespace
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionStage
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionTrace
 import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.settings.service.codegpt.CodeGPTServiceSettings
@@ -21,30 +22,95 @@ import okhttp3.sse.EventSource
 import kotlin.math.min
 
 abstract class CodeCompletionEventListener(
-    private val editor: Editor
+    private val editor: Editor,
+    private val onResult: (String?) -> Unit = {},
+    protected val trace: CompletionTrace? = null
 ) : CompletionEventListener<String> {
 
     companion object {
         private val logger = thisLogger()
     }
 
+    protected val serviceType = GeneralSettings.getSelectedService()
+    private val requestStartTime = System.currentTimeMillis()
+
+    @Volatile
+    private var cancelled = false
+
+    @Volatile
+    private var firstTokenReceived = false
+
+    @Volatile
+    private var stoppedEarly = false
+
     abstract fun handleCompleted(messageBuilder: StringBuilder)
 
+    /**
+     * Cancels the stream once the rest of the generation isn't needed, keeping what was received
+     * so far as the result.
+     */
+    protected fun stopEarly(eventSource: EventSource) {
+        if (stoppedEarly) {
+            return
+        }
+        stoppedEarly = true
+        eventSource.cancel()
+    }
+
+    /**
+     * Publishes the final completion text, unless the stream was cancelled before it finished.
+     */
+    protected fun publishResult(completion: String) {
+        if (!cancelled) {
+            onResult(completion)
+        }
+    }
+
     override fun onOpen() {
+        trace?.onOpen()
         setLoading(true)
     }
 
+    override fun onMessage(message: String, eventSource: EventSource) {
+        if (!firstTokenReceived) {
+            firstTokenReceived = true
+            trace?.onFirstToken()
+            // A hedged secondary provider was sent the request later, so its timing isn't recorded.
+            // The hedged request records how long the primary one went without output instead.
+            val respondingService = (eventSource as? HedgedCompletionRequest)?.getRespondingService()
+            serviceType?.takeIf { respondingService == null || respondingService == it }?.let {
+                service<CodeCompletionDebounceScheduler>().recordTimeToFirstToken(
+                    it,
+                    System.currentTimeMillis() - requestStartTime
+                )
+            }
+        }
+    }
+
     override fun onComplete(messageBuilder: StringBuilder) {
+        trace?.onStreamFinished()
         setLoading(false)
         handleCompleted(messageBuilder)
     }
 
     override fun onCancelled(messageBuilder: StringBuilder) {
+        if (stoppedEarly) {
+            onComplete(messageBuilder)
+            return
+        }
+
+        cancelled = true
         setLoading(false)
         handleCompleted(messageBuilder)
+        onResult(null)
     }
 
     override fun onError(error: ErrorDetails, ex: Throwable) {
+        if (stoppedEarly) {
+            onComplete(StringBuilder())
+            return
+        }
+
         val isCodeGPTService = GeneralSettings.getSelectedService() == ServiceType.CODEGPT
         if (isCodeGPTService && "RATE_LIMIT_EXCEEDED" == error.code) {
             service<CodeGPTServiceSettings>().state
@@ -57,6 +123,7 @@ abstract class CodeCompletionEventListener(
             logger.error(error.message, ex)
         }
         setLoading(false)
+        onResult(null)
     }
 
     private fun setLoading(loading: Boolean) {
@@ -66,31 +133,113 @@ abstract class CodeCompletionEventListener(
     }
 }
 
+/**
+ * Streams multi-line completions line by line. A line is shown once its line break arrives, and
+ * line breaks are held back until a non-blank line follows, so the gray text never ends with
+ * blank lines. Since shown text can't be taken back, lines are also held back while they would
+ * leave the file with syntax errors, such as a duplicate closing brace. When the stream
+ * finishes, the repaired completion decides how much of the remaining text is shown. If it no
+ * longer continues the shown text, the shown text is the result, so the cache matches the screen.
+ */
 class CodeCompletionMultiLineEventListener(
-    private val request: InlineCompletionRequest,
+    editor: Editor,
+    infillRequest: InfillRequest,
+    onResult: (String?) -> Unit = {},
     private val onCompletionReceived: (String) -> Unit
-) : CodeCompletionEventListener(request.editor) {
+) : CodeCompletionEventListener(editor, onResult, infillRequest.trace) {
+
+    private val snapshot = requireNotNull(infillRequest.documentSnapshot) {
+        "Multi-line completions are formatted against the document snapshot of their request"
+    }
+    private val incomingTextBuffer = StringBuilder()
+    private val displayedCompletion = StringBuilder()
+    private val pendingText = StringBuilder()
+    private val heldText = StringBuilder()
+    private var isFirstLine = true
+
+    override fun onMessage(message: String, eventSource: EventSource) {
+        super.onMessage(message, eventSource)
+        incomingTextBuffer.append(message)
+
+        var lineEndIndex = incomingTextBuffer.indexOf("\n")
+        while (lineEndIndex >= 0) {
+            processCompletionLine(incomingTextBuffer.substring(0, lineEndIndex))
+            incomingTextBuffer.delete(0, lineEndIndex + 1)
+            lineEndIndex = incomingTextBuffer.indexOf("\n")
+        }
+    }
 
     override fun handleCompleted(messageBuilder: StringBuilder) {
-        runInEdt {
-            onCompletionReceived(runWriteAction {
-                messageBuilder.toString().formatCompletion(request)
-            })
+        val completion = measureFormatting {
+            messageBuilder.toString().formatCompletion(snapshot, trace)
+        }
+        val displayedText = displayedCompletion.toString()
+        if (displayedText.isNotEmpty() && !completion.startsWith(displayedText)) {
+            // The repair diverged from the text already on screen, cache what the user sees
+            publishResult(displayedText)
+            return
+        }
+        val remainingText = completion.substring(displayedText.length)
+        if (remainingText.isNotEmpty()) {
+            display(remainingText)
+        }
+        publishResult(completion)
+    }
+
+    private fun processCompletionLine(line: String) {
+        val removeLeadingWhitespace =
+            displayedCompletion.isEmpty() && heldText.isEmpty() && snapshot.whitespaceBeforeCaret
+        val formattedLine = when {
+            removeLeadingWhitespace -> line.removeLeadingWhitespace(snapshot)
+            isFirstLine -> line
+            else -> snapshot.indentModel.reindentLine(line)
+        }
+        isFirstLine = false
+
+        if (formattedLine.isBlank()) {
+            if (!removeLeadingWhitespace) {
+                pendingText.append('\n')
+            }
+            return
+        }
+
+        heldText.append(pendingText).append(formattedLine)
+        pendingText.setLength(0)
+        pendingText.append('\n')
+
+        if ("$displayedCompletion$heldText".isAcceptedByRepair(snapshot)) {
+            display(heldText.toString())
+            heldText.setLength(0)
         }
     }
+
+    private fun display(text: String) {
+        displayedCompletion.append(text)
+        onCompletionReceived(text)
+    }
+
+    private inline fun <T> measureFormatting(block: () -> T): T {
+        val trace = trace ?: return block()
+        return trace.measure(CompletionStage.FORMATTING, block)
+    }
 }
 
 class CodeCompletionSingleLineEventListener(
     private val editor: Editor,
     private val infillRequest: InfillRequest,
+    onResult: (String?) -> Unit = {},
     private val onSend: (element: CodeCompletionTextElement) -> Unit,
-) : CodeCompletionEventListener(editor) {
+) : CodeCompletionEventListener(editor, onResult, infillRequest.trace) {
 
+    private val lineLimit = service<CodeCompletionStreamPolicy>().getLineLimit(serviceType)
     private var isFirstLine = true
     private val currentLineBuffer = StringBuilder()
     private val incomingTextBuffer = StringBuilder()
+    private val completionBuffer = StringBuilder()
+    private var lineBuffer: CompletionLineBuffer? = null
 
     override fun onMessage(message: String, eventSource: EventSource) {
+        super.onMessage(message, eventSource)
         incomingTextBuffer.append(message)
 
         while (incomingTextBuffer.contains("\n")) {
@@ -99,6 +248,11 @@ class CodeCompletionSingleLineEventListener(
             processCompletionLine(line)
             incomingTextBuffer.delete(0, lineEndIndex + 1)
         }
+
+        if (lineLimit != null && (lineBuffer?.getLineCount() ?: 0) >= lineLimit) {
+            incomingTextBuffer.setLength(0)
+            stopEarly(eventSource)
+        }
     }
 
     override fun handleCompleted(messageBuilder: StringBuilder) {
@@ -108,9 +262,13 @@ class CodeCompletionSingleLineEventListener(
 
         if (isFirstLine) {
             val completionLine = messageBuilder.toString().adjustWhitespaces(editor)
-            REMAINING_EDITOR_COMPLETION.set(editor, completionLine)
+            lineBuffer = CompletionLineBuffer.start(editor, serviceType, completionLine)
+            completionBuffer.setLength(0)
+            completionBuffer.append(completionLine)
             onLineReceived(completionLine)
         }
+
+        publishResult(completionBuffer.toString())
     }
 
     private fun processCompletionLine(line: String) {
@@ -175,8 +333,10 @@ class CodeCompletionSingleLineEventListener(
     }
 
     private fun appendRemainingCompletion(text: String) {
-        val previousRemainingText = REMAINING_EDITOR_COMPLETION.get(editor) ?: ""
-        REMAINING_EDITOR_COMPLETION.set(editor, previousRemainingText + text)
+        completionBuffer.append(text)
+        val buffer = lineBuffer ?: CompletionLineBuffer.start(editor, serviceType)
+            .also { lineBuffer = it }
+        buffer.append(text)
     }
 
     private fun Editor.getLineSuffixAfterCaret(): String {
@@ -16,7 +16,6 @@ import com.intellij.openapi.editor.actionSystem.EditorAction
 import com.intellij.openapi.editor.actionSystem.EditorWriteActionHandler
 import com.intellij.psi.PsiDocumentManager
 import com.intellij.util.concurrency.ThreadingAssertions
-import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
 import ee.carlrobert.codegpt.EncodingManager
 import ee.carlrobert.codegpt.predictions.PredictionService
 import ee.carlrobert.codegpt.settings.GeneralSettings
@@ -39,13 +38,7 @@ class CodeCompletionInsertAction :
 
             if (elements.isEmpty()) {
                 val textToInsert = context.textToInsert()
-                val remainingCompletion = REMAINING_EDITOR_COMPLETION.get(editor) ?: ""
-                if (remainingCompletion.isNotEmpty()) {
-                    REMAINING_EDITOR_COMPLETION.set(
-                        editor,
-                        remainingCompletion.removePrefix(textToInsert)
-                    )
-                }
+                CompletionLineBuffer.consume(editor, textToInsert)
 
                 val beforeApply = editor.document.text
                 InlineCompletion.getHandlerOrNull(editor)?.insert()
@@ -109,10 +102,8 @@ class CodeCompletionInsertAction :
             val endOffset = element.textRange.endOffset
             editor.caretModel.moveToOffset(endOffset)
 
-            val remainingCompletionLine = (REMAINING_EDITOR_COMPLETION.get(editor) ?: "")
-                .removePrefix(element.text)
-
-            processRemainingCompletion(remainingCompletionLine, editor, endOffset)
+            CompletionLineBuffer.consume(editor, element.text)
+            processRemainingCompletion(editor, endOffset)
         }
 
         private fun processPartialCompletionElement(
@@ -123,29 +114,23 @@ class CodeCompletionInsertAction :
             val lineEndOffset = editor.document.getLineEndOffset(lineNumber)
             editor.caretModel.moveToOffset(lineEndOffset)
 
-            val remainingText = REMAINING_EDITOR_COMPLETION.get(editor) ?: ""
-            val remainingCompletionLine = if (element.originalText.length > remainingText.length) {
-                remainingText.removePrefix(element.text)
+            val remainingText = CompletionLineBuffer.getRemaining(editor)
+            if (element.originalText.length > remainingText.length) {
+                CompletionLineBuffer.consume(editor, element.text)
             } else {
-                remainingText.removePrefix(element.originalText)
+                CompletionLineBuffer.consume(editor, element.originalText)
             }
 
-            processRemainingCompletion(remainingCompletionLine, editor, lineEndOffset + 1)
+            processRemainingCompletion(editor, lineEndOffset + 1)
         }
 
-        private fun processRemainingCompletion(
-            remainingCompletion: String,
-            editor: Editor,
-            offset: Int
-        ) {
-            val whitespaces = remainingCompletion.takeWhitespaces()
+        private fun processRemainingCompletion(editor: Editor, offset: Int) {
+            val whitespaces = CompletionLineBuffer.getRemaining(editor).takeWhitespaces()
             if (whitespaces.isNotEmpty()) {
                 editor.document.insertString(offset, whitespaces)
                 editor.caretModel.moveToOffset(offset + whitespaces.length)
+                CompletionLineBuffer.consume(editor, whitespaces)
             }
-
-            val nextCompletionLine = remainingCompletion.removePrefix(whitespaces)
-            REMAINING_EDITOR_COMPLETION.set(editor, nextCompletionLine)
         }
     }
 }
\ No newline at end of file
@@ -5,7 +5,6 @@ import com.intellij.codeInsight.inline.completion.InlineCompletionEvent
 import com.intellij.codeInsight.inline.completion.InlineCompletionInsertEnvironment
 import com.intellij.codeInsight.inline.completion.InlineCompletionInsertHandler
 import com.intellij.codeInsight.inline.completion.elements.InlineCompletionElement
-import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
 
 class CodeCompletionInsertHandler : InlineCompletionInsertHandler {
 
@@ -14,8 +13,7 @@ class CodeCompletionInsertHandler : InlineCompletionInsertHandler {
         elements: List<InlineCompletionElement>
     ) {
         val editor = environment.editor
-        val remainingCompletion = REMAINING_EDITOR_COMPLETION.get(editor) ?: ""
-        if (remainingCompletion.isNotEmpty()) {
+        if (CompletionLineBuffer.getRemaining(editor).isNotEmpty()) {
             InlineCompletion.getHandlerOrNull(editor)?.invoke(
                 InlineCompletionEvent.DirectCall(editor, editor.caretModel.currentCaret)
             )
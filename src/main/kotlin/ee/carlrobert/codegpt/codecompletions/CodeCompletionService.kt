@@ -7,9 +7,13 @@ import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildC
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildLlamaRequest
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildOllamaRequest
 import ee.carlrobert.codegpt.codecompletions.CodeCompletionRequestFactory.buildOpenAIRequest
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionStage
 import ee.carlrobert.codegpt.completions.CompletionClientProvider
 import ee.carlrobert.codegpt.completions.llama.LlamaModel
+import ee.carlrobert.codegpt.completions.llama.LlamaPromptCache
+import ee.carlrobert.codegpt.completions.llama.LlamaSlot
 import ee.carlrobert.codegpt.settings.GeneralSettings
+import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
 import ee.carlrobert.codegpt.settings.service.ServiceType.*
 import ee.carlrobert.codegpt.settings.service.codegpt.CodeGPTServiceSettings
@@ -56,18 +60,48 @@ class CodeCompletionService {
     fun getCodeCompletionAsync(
         infillRequest: InfillRequest,
         eventListener: CompletionEventListener<String>
+    ): EventSource {
+        val selectedService = GeneralSettings.getSelectedService()
+        val hedgingService = getHedgingService(selectedService)
+            ?: return getCodeCompletionAsync(selectedService, infillRequest, eventListener)
+
+        return HedgedCompletionRequest(
+            eventListener,
+            selectedService,
+            hedgingService,
+            infillRequest.trace
+        ) { serviceType, listener, onRequestSent ->
+            getCodeCompletionAsync(serviceType, infillRequest, listener, onRequestSent)
+        }.start()
+    }
+
+    private fun getHedgingService(selectedService: ServiceType): ServiceType? {
+        val settings = service<ConfigurationSettings>().state.codeCompletionSettings
+        if (!settings.hedgingEnabled) {
+            return null
+        }
+        return ServiceType.values()
+            .find { it.name == settings.hedgingServiceType }
+            ?.takeIf { it != selectedService && isCodeCompletionsEnabled(it) }
+    }
+
+    private fun getCodeCompletionAsync(
+        serviceType: ServiceType,
+        infillRequest: InfillRequest,
+        eventListener: CompletionEventListener<String>,
+        onRequestSent: () -> Unit = { infillRequest.trace?.onRequestSent() }
     ): EventSource =
-        when (val selectedService = GeneralSettings.getSelectedService()) {
+        when (serviceType) {
             CODEGPT -> CompletionClientProvider.getCodeGPTClient()
-                .getCodeCompletionAsync(buildCodeGPTRequest(infillRequest), eventListener)
+                .getCodeCompletionAsync(infillRequest.buildRequest(onRequestSent, ::buildCodeGPTRequest), eventListener)
 
             OPENAI -> CompletionClientProvider.getOpenAIClient()
-                .getCompletionAsync(buildOpenAIRequest(infillRequest), eventListener)
+                .getCompletionAsync(infillRequest.buildRequest(onRequestSent, ::buildOpenAIRequest), eventListener)
 
             CUSTOM_OPENAI -> createFactory(
-                CompletionClientProvider.getDefaultClientBuilder().build()
+                CompletionClientProvider.getDefaultClient()
             ).newEventSource(
-                buildCustomRequest(infillRequest),
+                infillRequest.buildRequest(onRequestSent) { buildCustomRequest(it) },
                 if (service<CustomServicesSettings>().state.active.codeCompletionSettings.parseResponseAsChatCompletions) {
                     OpenAIChatCompletionEventSourceListener(eventListener)
                 } else {
@@ -76,11 +110,28 @@ class CodeCompletionService {
             )
 
             OLLAMA -> CompletionClientProvider.getOllamaClient()
-                .getCompletionAsync(buildOllamaRequest(infillRequest), eventListener)
+                .getCompletionAsync(infillRequest.buildRequest(onRequestSent, ::buildOllamaRequest), eventListener)
 
-            LLAMA_CPP -> CompletionClientProvider.getLlamaClient()
-                .getChatCompletionAsync(buildLlamaRequest(infillRequest), eventListener)
+            LLAMA_CPP -> if (LlamaPromptCache.isEnabled()) {
+                LlamaPromptCache.getInstance().getCompletionAsync(
+                    infillRequest.buildRequest(onRequestSent, ::buildLlamaRequest),
+                    LlamaSlot.CODE_COMPLETION,
+                    eventListener
+                )
+            } else {
+                CompletionClientProvider.getLlamaClient()
+                    .getChatCompletionAsync(infillRequest.buildRequest(onRequestSent, ::buildLlamaRequest), eventListener)
+            }
 
-            else -> throw IllegalArgumentException("Code completion not supported for ${selectedService.name}")
+            else -> throw IllegalArgumentException("Code completion not supported for ${serviceType.name}")
         }
+
+    private fun <T> InfillRequest.buildRequest(
+        onRequestSent: () -> Unit,
+        build: (InfillRequest) -> T
+    ): T {
+        val trace = trace ?: return build(this).also { onRequestSent() }
+        return trace.measure(CompletionStage.REQUEST_BUILDING) { build(this) }
+            .also { onRequestSent() }
+    }
 }
@@ -0,0 +1,49 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Decides how many lines of a single-line mode completion are worth generating before the stream
+ * is stopped, from the configured limit of the provider and how many lines users accept.
+ */
+@Service
+class CodeCompletionStreamPolicy {
+
+    companion object {
+        const val DEFAULT_MAX_LINES = 12
+        private const val MIN_LINES = 2
+        private const val MIN_SAMPLES = 10
+    }
+
+    private val acceptedLines = ConcurrentHashMap<ServiceType, RollingHistogram>()
+
+    fun recordAcceptedLines(serviceType: ServiceType?, lines: Int) {
+        serviceType ?: return
+        acceptedLines.computeIfAbsent(serviceType) { RollingHistogram(64) }.add(lines.toLong())
+    }
+
+    /**
+     * Returns the number of lines after which the stream can be stopped, or null if it should
+     * run until the provider ends it.
+     */
+    fun getLineLimit(serviceType: ServiceType?): Int? {
+        val settings = service<ConfigurationSettings>().state.codeCompletionSettings
+        if (serviceType == null || !settings.earlyStreamTerminationEnabled) {
+            return null
+        }
+
+        val maxLines = (settings.maxCompletionLines[serviceType.name] ?: DEFAULT_MAX_LINES)
+            .coerceAtLeast(MIN_LINES)
+        val acceptedLinesP90 = acceptedLines[serviceType]
+            ?.takeIf { it.size() >= MIN_SAMPLES }
+            ?.percentile(90.0)
+            ?: return maxLines
+        // The displayed line and one more than usually accepted, so that accepting a little
+        // further than usual doesn't run out of lines
+        return (acceptedLinesP90.toInt() + 2).coerceIn(MIN_LINES, maxLines)
+    }
+}
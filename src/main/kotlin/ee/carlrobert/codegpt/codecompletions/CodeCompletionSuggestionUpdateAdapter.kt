@@ -9,7 +9,6 @@ import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionSug
 import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionSuggestionUpdateManager.UpdateResult.Invalidated
 import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionVariant
 import com.intellij.openapi.editor.Editor
-import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
 
 class CodeCompletionSuggestionUpdateAdapter :
     InlineCompletionSuggestionUpdateManager.Default() {
@@ -78,9 +77,6 @@ class CodeCompletionSuggestionUpdateAdapter :
     }
 
     private fun updateRemainingCompletion(editor: Editor, textToInsert: String) {
-        val remainingCompletion = REMAINING_EDITOR_COMPLETION.get(editor) ?: ""
-        if (remainingCompletion.isNotEmpty()) {
-            REMAINING_EDITOR_COMPLETION.set(editor, remainingCompletion.removePrefix(textToInsert))
-        }
+        CompletionLineBuffer.consume(editor, textToInsert)
     }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package ee.carlrobert.codegpt.codecompletions
+
+/**
+ * Rewrites the leading whitespace of multi-line completions in the document's indentation style,
+ * keeping the indentation width the model produced for each line.
+ */
+class CompletionIndentModel(private val useTabs: Boolean, tabSize: Int) {
+
+    private val tabSize = if (tabSize > 0) tabSize else 4
+
+    fun reindent(completion: String): String {
+        val lines = completion.lines()
+        if (lines.size == 1) {
+            return completion
+        }
+
+        return buildString(completion.length) {
+            append(lines[0])
+            for (i in 1 until lines.size) {
+                append('\n').append(reindentLine(lines[i]))
+            }
+        }
+    }
+
+    /**
+     * Reindents a single line following the first line of a completion.
+     */
+    fun reindentLine(line: String): String {
+        val indentLength = line.indexOfFirst { it != ' ' && it != '\t' }
+        if (indentLength < 0) {
+            return ""
+        }
+        if (indentLength == 0) {
+            return line
+        }
+
+        var columns = 0
+        for (i in 0 until indentLength) {
+            columns = if (line[i] == '\t') columns + tabSize - columns % tabSize else columns + 1
+        }
+        return createIndent(columns) + line.substring(indentLength)
+    }
+
+    private fun createIndent(columns: Int): String {
+        return if (useTabs) {
+            "\t".repeat(columns / tabSize) + " ".repeat(columns % tabSize)
+        } else {
+            " ".repeat(columns)
+        }
+    }
+}
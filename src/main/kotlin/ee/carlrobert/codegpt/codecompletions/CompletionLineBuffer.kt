@@ -0,0 +1,125 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.service
+import com.intellij.openapi.editor.Editor
+import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
+import ee.carlrobert.codegpt.settings.service.ServiceType
+
+/**
+ * Append-only buffer of a single-line mode completion, from which the user accepts one line at a
+ * time. Accepted text is consumed by moving an offset, so neither appending nor accepting copies
+ * the rest of the completion.
+ */
+class CompletionLineBuffer(private val serviceType: ServiceType?) {
+
+    companion object {
+
+        fun getRemaining(editor: Editor?): String {
+            return editor?.let { REMAINING_EDITOR_COMPLETION.get(it) }?.getRemaining() ?: ""
+        }
+
+        /**
+         * Replaces the editor's buffer, reporting how much of the previous one was accepted.
+         */
+        fun start(editor: Editor, serviceType: ServiceType?, text: String = ""): CompletionLineBuffer {
+            val buffer = CompletionLineBuffer(serviceType)
+            buffer.append(text)
+            REMAINING_EDITOR_COMPLETION.get(editor)?.release()
+            REMAINING_EDITOR_COMPLETION.set(editor, buffer)
+            return buffer
+        }
+
+        /**
+         * Replaces the editor's buffer with a completion served from the cache. If it is the rest
+         * of the previous completion, left after typing through it, the lines accepted so far are
+         * carried over instead of being reported as a completion of their own.
+         */
+        fun resume(editor: Editor, serviceType: ServiceType?, text: String): CompletionLineBuffer {
+            val buffer = CompletionLineBuffer(serviceType)
+            buffer.append(text)
+            val previous = REMAINING_EDITOR_COMPLETION.get(editor)
+            if (previous != null && previous.endsWith(text)) {
+                buffer.takeOverAcceptance(previous)
+            } else {
+                previous?.release()
+            }
+            REMAINING_EDITOR_COMPLETION.set(editor, buffer)
+            return buffer
+        }
+
+        fun consume(editor: Editor, text: String) {
+            REMAINING_EDITOR_COMPLETION.get(editor)?.consume(text)
+        }
+
+        fun clear(editor: Editor) {
+            REMAINING_EDITOR_COMPLETION.get(editor)?.release()
+            REMAINING_EDITOR_COMPLETION.set(editor, null)
+        }
+    }
+
+    private val text = StringBuilder()
+    private var consumedLength = 0
+    private var lineCount = 0
+    private var acceptedLineCount = 0
+    private var accepted = false
+    private var released = false
+
+    @Synchronized
+    fun append(completionText: CharSequence) {
+        text.append(completionText)
+        lineCount += completionText.count { it == '\n' }
+    }
+
+    @Synchronized
+    fun getRemaining(): String = text.substring(consumedLength)
+
+    @Synchronized
+    fun getLineCount(): Int = lineCount
+
+    /**
+     * Consumes the given text if the remaining completion starts with it.
+     */
+    @Synchronized
+    fun consume(consumedText: String) {
+        if (consumedText.isNotEmpty() && text.startsWith(consumedText, consumedLength)) {
+            consumedLength += consumedText.length
+            acceptedLineCount += consumedText.count { it == '\n' }
+            accepted = true
+        }
+    }
+
+    /**
+     * Returns the number of lines accepted after the displayed one, or null if nothing of the
+     * completion was accepted.
+     */
+    @Synchronized
+    fun getAcceptedLineCount(): Int? = acceptedLineCount.takeIf { accepted }
+
+    @Synchronized
+    private fun endsWith(completionText: String): Boolean = text.endsWith(completionText)
+
+    @Synchronized
+    internal fun takeOverAcceptance(previous: CompletionLineBuffer) {
+        synchronized(previous) {
+            if (!previous.released) {
+                previous.released = true
+                accepted = previous.accepted
+                acceptedLineCount = previous.acceptedLineCount
+            }
+        }
+    }
+
+    /**
+     * Reports the accepted lines once the buffer is replaced or cleared. Rejected completions
+     * aren't reported, so that they don't count as completions of which no line was needed.
+     */
+    @Synchronized
+    private fun release() {
+        if (!released) {
+            released = true
+            getAcceptedLineCount()?.let {
+                service<CodeCompletionStreamPolicy>().recordAcceptedLines(serviceType, it)
+            }
+        }
+    }
+}
@@ -1,106 +1,133 @@
 package ee.carlrobert.codegpt.codecompletions
 
-import ai.grazie.nlp.utils.takeLastWhitespaces
 import ai.grazie.nlp.utils.takeWhitespaces
+import com.intellij.application.options.CodeStyle
 import com.intellij.codeInsight.inline.completion.InlineCompletionRequest
+import com.intellij.openapi.application.runReadAction
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.thisLogger
 import com.intellij.openapi.editor.Document
-import com.intellij.openapi.editor.Editor
-import com.intellij.openapi.fileEditor.FileDocumentManager
-import com.intellij.openapi.util.TextRange
-import com.intellij.psi.PsiFile
-import com.intellij.psi.PsiFileFactory
-import com.intellij.psi.codeStyle.CodeStyleManager
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionStage
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionTrace
 import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.treesitter.CodeCompletionParser
 import ee.carlrobert.codegpt.treesitter.CodeCompletionParserFactory
-import kotlin.math.min
 
 object CompletionUtil {
 
     val logger = thisLogger()
 
-    fun String.formatCompletion(request: InlineCompletionRequest): String {
-        try {
-            val editor = request.editor
-            val project = editor.project ?: return this
-            val document = request.document
-            val caretOffset = editor.caretModel.offset
-            val textBeforeCompletion = document.text.substring(0, caretOffset)
-            val textAfterCompletion = document.text.substring(caretOffset)
+    /**
+     * Immutable view of the document at the time the completion was requested, so that
+     * formatting runs against the prefix the prompt was built from, off the EDT and without
+     * holding a read action.
+     */
+    class DocumentSnapshot(
+        val document: Document,
+        val text: CharSequence,
+        val modificationStamp: Long,
+        val caretOffset: Int,
+        val fileExtension: String?,
+        val indentModel: CompletionIndentModel,
+    ) {
+
+        val whitespaceBeforeCaret: Boolean
+            get() = caretOffset > 0 && text[caretOffset - 1].isWhitespace()
 
-            val adjustedText = if (
-                takeWhitespaces().isNotEmpty()
-                && textBeforeCompletion.takeLastWhitespaces().isNotEmpty()
-            ) removePrefix(takeWhitespaces())
-            else this
+        companion object {
+            fun capture(request: InlineCompletionRequest): DocumentSnapshot = runReadAction {
+                val document = request.document
+                val text = document.immutableCharSequence
+                val indentOptions = CodeStyle.getIndentOptions(request.file)
+                DocumentSnapshot(
+                    document,
+                    text,
+                    document.modificationStamp,
+                    request.endOffset.coerceAtMost(text.length),
+                    request.file.virtualFile?.extension,
+                    CompletionIndentModel(indentOptions.USE_TAB_CHARACTER, indentOptions.TAB_SIZE)
+                )
+            }
+        }
+    }
 
+    fun String.formatCompletion(snapshot: DocumentSnapshot, trace: CompletionTrace? = null): String {
+        try {
+            val adjustedText = removeLeadingWhitespace(snapshot)
             if (adjustedText.lines().size == 1) {
                 return adjustedText
             }
 
-            val originalFile = service<FileDocumentManager>().getFile(document) ?: return ""
-            val tempFile = project.service<PsiFileFactory>().createFileFromText(
-                "temp.${originalFile.extension}",
-                originalFile.fileType,
-                buildString {
-                    append(textBeforeCompletion)
-                    append(adjustedText)
-                    append(textAfterCompletion)
+            val formattedCompletion = snapshot.indentModel.reindent(adjustedText).trimEnd()
+            val parser = getRepairParser(snapshot) ?: return formattedCompletion
+            val repairStartTime = System.nanoTime()
+            return parser
+                .parse(
+                    service<DocumentSyntaxTreeService>().getSyntaxTree(snapshot.document),
+                    snapshot.modificationStamp,
+                    snapshot.getPrefix(),
+                    snapshot.getSuffix(),
+                    formattedCompletion
+                )
+                .trimEnd()
+                .also {
+                    trace?.record(
+                        CompletionStage.TREE_SITTER_REPAIR,
+                        System.nanoTime() - repairStartTime
+                    )
                 }
-            )
-
-            project.service<CodeStyleManager>()
-                .adjustLineIndent(tempFile, TextRange.from(caretOffset, adjustedText.length))
-
-            val formattedCompletion =
-                getFormattedCompletion(adjustedText, tempFile, document, editor)
-
-            val postProcessingEnabled =
-                service<GeneralSettings>().state.selectedService != ServiceType.CODEGPT
-                        && service<ConfigurationSettings>().state.codeCompletionSettings.treeSitterProcessingEnabled
-            return if (postProcessingEnabled) {
-                val parser =
-                    CodeCompletionParserFactory.getParserForFileExtension(originalFile.extension)
-                        ?: return formattedCompletion
-                parser
-                    .parse(textBeforeCompletion, textAfterCompletion, formattedCompletion)
-                    .trimEnd()
-            } else {
-                formattedCompletion
-            }
         } catch (e: Exception) {
             logger.error("Failed to format completion output", e)
             return this
         }
     }
 
-    private fun getFormattedCompletion(
-        completionText: String,
-        tempFile: PsiFile,
-        document: Document,
-        editor: Editor,
-    ): String {
-        val formattedText = StringBuilder()
-        val tempFileDocument = tempFile.fileDocument
-        val currentCaretLine = editor.caretModel.logicalPosition.line
-        var linePosition = currentCaretLine
-        for (i in completionText.lines().indices) {
-            val minPosition = min(linePosition, tempFileDocument.lineCount - 1)
-            val range = TextRange(
-                tempFileDocument.getLineStartOffset(minPosition),
-                tempFileDocument.getLineEndOffset(minPosition)
+    /**
+     * Returns whether the already formatted part of a streamed completion can be shown, that is,
+     * whether it leaves the file free of syntax errors. Like [formatCompletion], only completions
+     * spanning several lines are checked, and only if completions are repaired at all.
+     */
+    fun String.isAcceptedByRepair(snapshot: DocumentSnapshot): Boolean {
+        if (!contains('\n')) {
+            return true
+        }
+
+        val parser = getRepairParser(snapshot) ?: return true
+        return try {
+            parser.isValid(
+                service<DocumentSyntaxTreeService>().getSyntaxTree(snapshot.document),
+                snapshot.modificationStamp,
+                snapshot.getPrefix(),
+                snapshot.getSuffix(),
+                this
             )
+        } catch (e: Exception) {
+            logger.warn("Failed to check completion output", e)
+            true
+        }
+    }
 
-            formattedText.append(tempFileDocument.getText(range)).append("\n")
-            linePosition++
+    private fun getRepairParser(snapshot: DocumentSnapshot): CodeCompletionParser? {
+        val repairEnabled =
+            service<GeneralSettings>().state.selectedService != ServiceType.CODEGPT
+                    && service<ConfigurationSettings>().state.codeCompletionSettings.treeSitterProcessingEnabled
+        if (!repairEnabled) {
+            return null
         }
+        return CodeCompletionParserFactory.getParserForFileExtension(snapshot.fileExtension)
+    }
+
+    private fun DocumentSnapshot.getPrefix() = text.subSequence(0, caretOffset).toString()
+
+    private fun DocumentSnapshot.getSuffix() =
+        text.subSequence(caretOffset, text.length).toString()
 
-        val prefixToRemove = document.getText(
-            TextRange(document.getLineStartOffset(currentCaretLine), editor.caretModel.offset)
-        )
-        return formattedText.removePrefix(prefixToRemove).trimEnd().toString()
+    /**
+     * Drops the completion's leading whitespace if the caret already follows whitespace.
+     */
+    fun String.removeLeadingWhitespace(snapshot: DocumentSnapshot): String {
+        return if (snapshot.whitespaceBeforeCaret) removePrefix(takeWhitespaces()) else this
     }
 }
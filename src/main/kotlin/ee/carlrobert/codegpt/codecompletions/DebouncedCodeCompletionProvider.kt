@@ -6,11 +6,13 @@ import com.intellij.codeInsight.inline.completion.elements.InlineCompletionGrayT
 import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionSingleSuggestion
 import com.intellij.codeInsight.inline.completion.suggestion.InlineCompletionSuggestion
 import com.intellij.codeInsight.lookup.LookupManager
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ModalityState
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.thisLogger
+import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.TextRange
-import ee.carlrobert.codegpt.CodeGPTKeys.REMAINING_EDITOR_COMPLETION
 import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
 import ee.carlrobert.codegpt.settings.service.ServiceType
@@ -24,12 +26,10 @@ import kotlinx.coroutines.channels.ProducerScope
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.flow.emptyFlow
+import kotlinx.coroutines.future.await
 import kotlinx.coroutines.launch
 import okhttp3.sse.EventSource
-import java.util.concurrent.atomic.AtomicReference
 import kotlin.time.Duration
-import kotlin.time.DurationUnit
-import kotlin.time.toDuration
 
 class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
 
@@ -37,8 +37,6 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         private val logger = thisLogger()
     }
 
-    private val currentCallRef = AtomicReference<EventSource?>(null)
-
     override val id: InlineCompletionProviderID
         get() = InlineCompletionProviderID("CodeGPTInlineCompletionProvider")
 
@@ -52,16 +50,15 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         get() = CodeCompletionProviderPresentation()
 
     override suspend fun getSuggestionDebounced(request: InlineCompletionRequest): InlineCompletionSuggestion {
-        return if (service<ConfigurationSettings>().state.codeCompletionSettings.multiLineEnabled) {
-            getMultiLineSuggestionDebounced(request)
-        } else {
-            getSingleLineSuggestionDebounced(request)
+        return when (getCompletionType()) {
+            CompletionType.MULTI_LINE -> getMultiLineSuggestionDebounced(request)
+            CompletionType.SINGLE_LINE -> getSingleLineSuggestionDebounced(request)
         }
     }
 
     private fun getSingleLineSuggestionDebounced(request: InlineCompletionRequest): InlineCompletionSuggestion {
         val editor = request.editor
-        val remainingCompletion = REMAINING_EDITOR_COMPLETION.get(editor) ?: ""
+        val remainingCompletion = CompletionLineBuffer.getRemaining(editor)
         if (request.event is InlineCompletionEvent.DirectCall && remainingCompletion.isNotEmpty()
         ) {
             return sendNextSuggestion(remainingCompletion.extractUntilNewline(), request)
@@ -70,11 +67,12 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         return getSuggestionDebounced(
             request,
             CompletionType.SINGLE_LINE
-        ) { project, infillRequest ->
+        ) { project, infillRequest, onResult, onReceived ->
             project.service<CodeCompletionService>()
                 .getCodeCompletionAsync(
                     infillRequest,
-                    CodeCompletionSingleLineEventListener(request.editor, infillRequest) {
+                    CodeCompletionSingleLineEventListener(request.editor, infillRequest, onResult) {
+                        onReceived(it.originalText)
                         trySend(it)
                     }
                 )
@@ -85,11 +83,12 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         return getSuggestionDebounced(
             request,
             CompletionType.MULTI_LINE
-        ) { project, infillRequest ->
+        ) { project, infillRequest, onResult, onReceived ->
             project.service<CodeCompletionService>()
                 .getCodeCompletionAsync(
                     infillRequest,
-                    CodeCompletionMultiLineEventListener(request) {
+                    CodeCompletionMultiLineEventListener(request.editor, infillRequest, onResult) {
+                        onReceived(it)
                         trySend(InlineCompletionGrayTextElement(it))
                     }
                 )
@@ -99,7 +98,12 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
     private fun getSuggestionDebounced(
         request: InlineCompletionRequest,
         completionType: CompletionType,
-        fetchCompletion: ProducerScope<InlineCompletionElement>.(Project, InfillRequest) -> EventSource
+        fetchCompletion: ProducerScope<InlineCompletionElement>.(
+            project: Project,
+            infillRequest: InfillRequest,
+            onResult: (String?) -> Unit,
+            onReceived: (String) -> Unit
+        ) -> EventSource
     ): InlineCompletionSuggestion {
         val project = request.editor.project
         if (project == null) {
@@ -120,14 +124,115 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         }
 
         return InlineCompletionSingleSuggestion.build(elements = channelFlow {
+            val cache = CodeCompletionCache.getInstance(request.editor)
+            val cacheKey = CodeCompletionCacheKey.create(request, completionType)
+            val cachedCompletion = getCachedCompletion(request, cache, cacheKey)
+            if (cachedCompletion != null) {
+                CompletionProgressNotifier.update(project, false)
+                sendCachedCompletion(request, completionType, cachedCompletion)
+                return@channelFlow
+            }
+
+            cache.cancelInFlight()
             val infillRequest = InfillRequestUtil.buildInfillRequest(request, completionType)
-            currentCallRef.set(fetchCompletion(project, infillRequest))
-            awaitClose { currentCallRef.getAndSet(null)?.cancel() }
+            val inFlight = cache.startInFlight(cacheKey)
+            inFlight.eventSource = fetchCompletion(
+                project,
+                infillRequest,
+                { cache.complete(inFlight, it) },
+                inFlight::onReceived
+            )
+            awaitClose { releaseInFlight(request.editor, cache, inFlight) }
         })
     }
 
+    private suspend fun getCachedCompletion(
+        request: InlineCompletionRequest,
+        cache: CodeCompletionCache,
+        cacheKey: CodeCompletionCacheKey
+    ): String? {
+        if (cacheKey.type == CompletionType.SINGLE_LINE && !cacheKey.isLineSuffixBlank()) {
+            return null
+        }
+
+        cache.get(cacheKey)?.let { return it }
+        val inFlight = cache.attachInFlight(cacheKey) ?: return null
+        try {
+            inFlight.result.await()
+        } finally {
+            releaseInFlight(request.editor, cache, inFlight)
+        }
+        return cache.get(cacheKey)
+    }
+
+    /**
+     * Releases the in-flight stream once the event that closed the session, such as a keystroke,
+     * has been handled, so that the caret position it is compared against is final.
+     */
+    private fun releaseInFlight(
+        editor: Editor,
+        cache: CodeCompletionCache,
+        inFlight: CodeCompletionCache.InFlightCompletion
+    ) {
+        ApplicationManager.getApplication().invokeLater({
+            val currentKey = if (editor.isDisposed) null else CodeCompletionCacheKey.create(
+                editor.document,
+                editor.caretModel.offset,
+                inFlight.key.filePath,
+                inFlight.key.type
+            )
+            cache.release(inFlight, currentKey)
+        }, ModalityState.any())
+    }
+
+    private fun ProducerScope<InlineCompletionElement>.sendCachedCompletion(
+        request: InlineCompletionRequest,
+        completionType: CompletionType,
+        completion: String
+    ) {
+        when (completionType) {
+            CompletionType.SINGLE_LINE -> {
+                CompletionLineBuffer.resume(
+                    request.editor,
+                    GeneralSettings.getSelectedService(),
+                    completion
+                )
+                val completionLine = completion.extractUntilNewline()
+                trySend(
+                    CodeCompletionTextElement(
+                        completionLine,
+                        request.startOffset,
+                        TextRange.from(request.startOffset, completionLine.length),
+                    )
+                )
+            }
+
+            CompletionType.MULTI_LINE -> trySend(InlineCompletionGrayTextElement(completion))
+        }
+    }
+
     override suspend fun getDebounceDelay(request: InlineCompletionRequest): Duration {
-        return 600.toDuration(DurationUnit.MILLISECONDS)
+        val scheduler = service<CodeCompletionDebounceScheduler>()
+        if (request.event is InlineCompletionEvent.DocumentChange) {
+            scheduler.recordKeystroke()
+        }
+
+        val completionType = getCompletionType()
+        val cacheKey = CodeCompletionCacheKey.create(request, completionType)
+        if ((completionType == CompletionType.MULTI_LINE || cacheKey.isLineSuffixBlank())
+            && CodeCompletionCache.getInstance(request.editor).get(cacheKey) != null
+        ) {
+            return Duration.ZERO
+        }
+        return scheduler.getDelay(GeneralSettings.getSelectedService())
+    }
+
+    private fun getCompletionType(): CompletionType {
+        return if (service<ConfigurationSettings>().state.codeCompletionSettings.multiLineEnabled) {
+            CompletionType.MULTI_LINE
+        } else {
+            CompletionType.SINGLE_LINE
+        }
     }
 
     override fun isEnabled(event: InlineCompletionEvent): Boolean {
@@ -153,7 +258,7 @@ class DebouncedCodeCompletionProvider : DebouncedInlineCompletionProvider() {
         }
 
         val containsActiveCompletion =
-            REMAINING_EDITOR_COMPLETION.get(event.toRequest()?.editor)?.isNotEmpty() ?: false
+            CompletionLineBuffer.getRemaining(event.toRequest()?.editor).isNotEmpty()
 
         return event is InlineCompletionEvent.DocumentChange || containsActiveCompletion
     }
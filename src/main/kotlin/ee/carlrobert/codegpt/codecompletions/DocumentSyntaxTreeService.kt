@@ -0,0 +1,95 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.EditorFactory
+import com.intellij.openapi.editor.event.DocumentEvent
+import com.intellij.openapi.editor.event.DocumentListener
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.UserDataHolderEx
+import ee.carlrobert.codegpt.CodeGPTKeys.DOCUMENT_SYNTAX_TREE
+import ee.carlrobert.codegpt.treesitter.IncrementalSyntaxTree
+import ee.carlrobert.codegpt.treesitter.TextPosition
+import ee.carlrobert.codegpt.treesitter.TreeSitterLanguage
+
+/**
+ * Keeps a tree-sitter tree for every document open in an editor, updated from the document's
+ * edits, so that completion post-processing doesn't have to parse the whole document again.
+ */
+@Service
+class DocumentSyntaxTreeService : Disposable {
+
+    fun track(editor: Editor) {
+        val document = editor.document
+        if (document.getUserData(DOCUMENT_SYNTAX_TREE) != null) {
+            return
+        }
+
+        val language = TreeSitterLanguage.findByExtension(editor.virtualFile?.extension) ?: return
+        val tracker = DocumentSyntaxTreeTracker(IncrementalSyntaxTree(language))
+        val holder = document as? UserDataHolderEx ?: return
+        if (holder.putUserDataIfAbsent(DOCUMENT_SYNTAX_TREE, tracker) === tracker) {
+            Disposer.register(this, tracker)
+            document.addDocumentListener(tracker, tracker)
+        }
+    }
+
+    fun release(editor: Editor) {
+        val document = editor.document
+        val stillOpen = EditorFactory.getInstance().getEditors(document).any { it != editor }
+        if (!stillOpen) {
+            document.getUserData(DOCUMENT_SYNTAX_TREE)?.let { Disposer.dispose(it) }
+            document.putUserData(DOCUMENT_SYNTAX_TREE, null)
+        }
+    }
+
+    fun getSyntaxTree(document: Document): IncrementalSyntaxTree? {
+        return document.getUserData(DOCUMENT_SYNTAX_TREE)?.syntaxTree
+    }
+
+    override fun dispose() {
+    }
+}
+
+class DocumentSyntaxTreeTracker(val syntaxTree: IncrementalSyntaxTree) : DocumentListener,
+    Disposable {
+
+    override fun documentChanged(event: DocumentEvent) {
+        val document = event.document
+        val startOffset = event.offset
+        // The text before the change is unchanged, so its start position is the same as before
+        val start = getPosition(document, startOffset)
+        syntaxTree.edit(
+            startOffset,
+            startOffset + event.oldLength,
+            startOffset + event.newLength,
+            start,
+            getEndPosition(start, event.oldFragment),
+            getEndPosition(start, event.newFragment),
+            event.oldTimeStamp,
+            document.modificationStamp
+        )
+    }
+
+    override fun dispose() {
+        syntaxTree.clear()
+    }
+
+    private fun getPosition(document: Document, offset: Int): TextPosition {
+        val line = document.getLineNumber(offset)
+        return TextPosition(line, offset - document.getLineStartOffset(line))
+    }
+
+    private fun getEndPosition(start: TextPosition, insertedText: CharSequence): TextPosition {
+        val lastLineBreak = insertedText.lastIndexOf('\n')
+        if (lastLineBreak == -1) {
+            return TextPosition(start.line, start.column + insertedText.length)
+        }
+        return TextPosition(
+            start.line + insertedText.count { it == '\n' },
+            insertedText.length - lastLineBreak - 1
+        )
+    }
+}
@@ -0,0 +1,240 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.service
+import com.intellij.util.concurrency.AppExecutorUtil
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionTrace
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.Request
+import okhttp3.sse.EventSource
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends an infill request to the primary provider and, if no output has arrived within the hedge
+ * delay, to the secondary provider as well. The first stream to produce output is forwarded to
+ * the listener and the other one is cancelled. A failure of one stream before any output is only
+ * reported if the other one fails too.
+ *
+ * The request is traced as sent when the forwarded stream was sent. If the secondary provider
+ * wins, the time the primary one had been waiting without output is recorded as its
+ * time-to-first-token, so that slow responses still count towards the hedge delay.
+ */
+class HedgedCompletionRequest(
+    private val listener: CompletionEventListener<String>,
+    private val primaryService: ServiceType,
+    private val secondaryService: ServiceType,
+    private val trace: CompletionTrace?,
+    private val hedgeDelay: Long = getHedgeDelay(primaryService),
+    private val startRequest: (
+        serviceType: ServiceType,
+        listener: CompletionEventListener<String>,
+        onRequestSent: () -> Unit
+    ) -> EventSource,
+) : EventSource {
+
+    companion object {
+        private const val HEDGE_PERCENTILE = 90.0
+        private const val MIN_SAMPLES = 10
+        private const val DEFAULT_HEDGE_DELAY_MS = 1000L
+        private const val MIN_HEDGE_DELAY_MS = 100L
+        private const val MAX_HEDGE_DELAY_MS = 3000L
+
+        /**
+         * Returns how long to wait for the first token of the primary provider before hedging,
+         * based on its recent time-to-first-token.
+         */
+        fun getHedgeDelay(serviceType: ServiceType): Long {
+            val timeToFirstToken = service<CodeCompletionDebounceScheduler>()
+                .getTimeToFirstToken(serviceType)
+                .takeIf { it.size() >= MIN_SAMPLES }
+                ?.percentile(HEDGE_PERCENTILE)
+                ?: DEFAULT_HEDGE_DELAY_MS
+            return timeToFirstToken.coerceIn(MIN_HEDGE_DELAY_MS, MAX_HEDGE_DELAY_MS)
+        }
+    }
+
+    private val lock = Any()
+    private var primary: Leg? = null
+    private var secondary: Leg? = null
+    private var winner: Leg? = null
+    private var hedgeTask: ScheduledFuture<*>? = null
+    private var opened = false
+    private var cancelled = false
+    private var terminated = false
+
+    fun start(): HedgedCompletionRequest {
+        val leg = Leg(primaryService)
+        synchronized(lock) {
+            primary = leg
+        }
+        startLeg(leg)
+        synchronized(lock) {
+            if (winner == null && !cancelled && secondary == null) {
+                hedgeTask = AppExecutorUtil.getAppScheduledExecutorService().schedule(
+                    { startSecondary() },
+                    hedgeDelay,
+                    TimeUnit.MILLISECONDS
+                )
+            }
+        }
+        return this
+    }
+
+    /**
+     * Returns the provider whose stream is forwarded, or null while none has produced output.
+     */
+    fun getRespondingService(): ServiceType? = synchronized(lock) { winner?.serviceType }
+
+    override fun request(): Request = primary?.eventSource?.request()
+        ?: throw IllegalStateException("Request has not been started")
+
+    override fun cancel() {
+        val legs = synchronized(lock) {
+            cancelled = true
+            hedgeTask?.cancel(false)
+            listOfNotNull(primary, secondary)
+        }
+        legs.forEach { it.eventSource?.cancel() }
+    }
+
+    private fun startSecondary() {
+        val leg = synchronized(lock) {
+            if (winner != null || cancelled || secondary != null) {
+                return
+            }
+            Leg(secondaryService).also { secondary = it }
+        }
+        startLeg(leg)
+    }
+
+    private fun startLeg(leg: Leg) {
+        leg.startedAt = System.currentTimeMillis()
+        val eventSource = startRequest(leg.serviceType, leg) {
+            leg.sentAt = System.nanoTime()
+            if (leg.serviceType == primaryService) {
+                trace?.onRequestSent(leg.sentAt)
+            }
+        }
+        // The other stream may have won, or the request been cancelled, while this one was
+        // started, before there was an event source to cancel
+        val lost = synchronized(lock) {
+            leg.eventSource = eventSource
+            cancelled || (winner != null && winner !== leg)
+        }
+        if (lost) {
+            eventSource.cancel()
+        }
+    }
+
+    /**
+     * Makes the given stream the forwarded one if none is yet, cancelling the other one.
+     */
+    private fun claim(leg: Leg): Boolean {
+        val otherLeg = synchronized(lock) {
+            if (winner != null) {
+                return winner === leg
+            }
+            winner = leg
+            hedgeTask?.cancel(false)
+            if (leg === primary) secondary else primary
+        }
+        if (leg === secondary) {
+            onSecondaryClaimed(leg)
+        }
+        otherLeg?.eventSource?.cancel()
+        return true
+    }
+
+    private fun onSecondaryClaimed(leg: Leg) {
+        trace?.onRequestSent(leg.sentAt)
+        primary?.let {
+            service<CodeCompletionDebounceScheduler>().recordTimeToFirstToken(
+                primaryService,
+                System.currentTimeMillis() - it.startedAt
+            )
+        }
+    }
+
+    private fun isWinner(leg: Leg) = synchronized(lock) { winner === leg }
+
+    /**
+     * Decides whether a failure before any output ends the whole request.
+     */
+    private fun onFailedBeforeOutput(leg: Leg): Boolean {
+        synchronized(lock) {
+            leg.failed = true
+            if (terminated) {
+                return false
+            }
+            val otherLeg = if (leg === primary) secondary else primary
+            if (cancelled || (otherLeg != null && otherLeg.failed)) {
+                terminated = true
+                return true
+            }
+            if (otherLeg != null) {
+                return false
+            }
+            hedgeTask?.cancel(false)
+        }
+        startSecondary()
+        return false
+    }
+
+    private inner class Leg(val serviceType: ServiceType) : CompletionEventListener<String> {
+
+        @Volatile
+        var eventSource: EventSource? = null
+
+        @Volatile
+        var startedAt = 0L
+
+        @Volatile
+        var sentAt = 0L
+
+        @Volatile
+        var failed = false
+
+        override fun onOpen() {
+            val firstOpen = synchronized(lock) {
+                !opened.also { opened = true }
+            }
+            if (firstOpen) {
+                listener.onOpen()
+            }
+        }
+
+        override fun onMessage(message: String, eventSource: EventSource) {
+            if (claim(this)) {
+                listener.onMessage(message, this@HedgedCompletionRequest)
+            }
+        }
+
+        override fun onComplete(messageBuilder: StringBuilder) {
+            if (claim(this)) {
+                listener.onComplete(messageBuilder)
+            }
+        }
+
+        override fun onCancelled(messageBuilder: StringBuilder) {
+            if (isWinner(this)) {
+                listener.onCancelled(messageBuilder)
+                return
+            }
+
+            val cancelledBeforeOutput = synchronized(lock) {
+                winner == null && cancelled && !terminated.also { terminated = true }
+            }
+            if (cancelledBeforeOutput) {
+                listener.onCancelled(messageBuilder)
+            }
+        }
+
+        override fun onError(error: ErrorDetails, ex: Throwable) {
+            if (isWinner(this) || (getRespondingService() == null && onFailedBeforeOutput(this))) {
+                listener.onError(error, ex)
+            }
+        }
+    }
+}
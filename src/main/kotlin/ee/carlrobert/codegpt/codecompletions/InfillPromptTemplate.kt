@@ -26,7 +26,7 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
             return if (infillDetails.context == null || infillDetails.context.contextElements.isEmpty()) {
                 infillPrompt
             } else {
-                infillDetails.context.contextElements.map {
+                infillDetails.context.getOrderedContextElements().map {
                     "<|file_separator|>${it.filePath()} \n" +
                             it.text()
                 }.joinToString("") { it + "\n" } +
@@ -44,7 +44,7 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
                 infillPrompt
             } else {
                 "<reponame>${infillDetails.context.getRepoName()}\n" +
-                        infillDetails.context.contextElements.map {
+                        infillDetails.context.getOrderedContextElements().map {
                             "<file_sep>${it.filePath()} \n" +
                                     it.text()
                         }.joinToString("") { it + "\n" } +
@@ -78,10 +78,10 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
             return when {
                 infillDetails.dependenciesStructure != null -> {
                     "<|repo_name|>${infillDetails.repositoryName}\n" +
-                            infillDetails.dependenciesStructure.joinToString(separator = "\n", prefix = "\n") {
+                            infillDetails.dependenciesStructure.sortedBy { it.name.value }.joinToString(separator = "\n", prefix = "\n") {
                                 "<|file_sep|>${it.name.value}\n${ClassStructureSerializer.serialize(it)}\n"
                             } +
-                            infillDetails.context?.contextElements?.ifNotEmpty {
+                            infillDetails.context?.getOrderedContextElements()?.ifNotEmpty {
                                 map {
                                     "<|file_sep|>${it.filePath()} \n" +
                                             it.text()
@@ -94,7 +94,7 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
 
                 infillDetails.context != null && infillDetails.context.contextElements.isNotEmpty() -> {
                     "<|repo_name|>${infillDetails.context.getRepoName()}\n" +
-                            infillDetails.context.contextElements.map {
+                            infillDetails.context.getOrderedContextElements().map {
                                 "<|file_sep|>${it.filePath()} \n" +
                                         it.text()
                             }.joinToString("") { it + "\n" } +
@@ -123,7 +123,7 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
             return if (infillDetails.context == null || infillDetails.context.contextElements.isEmpty()) {
                 infillPrompt
             } else {
-                infillDetails.context.contextElements.map { "#${it.filePath()}\n" + it.text() }
+                infillDetails.context.getOrderedContextElements().map { "#${it.filePath()}\n" + it.text() }
                     .joinToString("") { it + "\n" } +
                         "#${infillDetails.context.enclosingElement.filePath()}\n" +
                         infillPrompt
@@ -139,7 +139,7 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
                 infillPrompt
             } else {
                 "<reponame>${infillDetails.context.getRepoName()}" +
-                        infillDetails.context.contextElements.map {
+                        infillDetails.context.getOrderedContextElements().map {
                             "<filename>${it.filePath()}\n" +
                                     it.text() + "<|endoftext|>"
                         }.joinToString("") { it + "\n" } +
@@ -172,7 +172,7 @@ enum class InfillPromptTemplate(val label: String, val stopTokens: List<String>?
             return if (context == null || context.contextElements.isEmpty()) {
                 infillPrompt
             } else {
-                context.contextElements.map {
+                context.getOrderedContextElements().map {
                     "# ${it.filePath()} \n" +
                             it.text()
                 }.joinToString("") { it + "\n" } +
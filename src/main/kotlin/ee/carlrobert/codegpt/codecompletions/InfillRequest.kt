@@ -1,13 +1,17 @@
 package ee.carlrobert.codegpt.codecompletions
 
 import com.intellij.openapi.components.service
-import com.intellij.openapi.editor.Document
+import com.intellij.openapi.application.runReadAction
 import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiElement
+import com.intellij.refactoring.suggested.startOffset
 import ee.carlrobert.codegpt.EncodingManager
+import ee.carlrobert.codegpt.codecompletions.CompletionUtil.DocumentSnapshot
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionTrace
 import ee.carlrobert.codegpt.codecompletions.psi.filePath
 import ee.carlrobert.codegpt.codecompletions.psi.readText
 import ee.carlrobert.codegpt.codecompletions.psi.structure.models.ClassStructure
+import kotlin.math.min
 
 const val MAX_PROMPT_TOKENS = 256
 
@@ -20,6 +24,8 @@ class InfillRequest private constructor(
     val dependenciesStructure: Set<ClassStructure>?,
     val context: InfillContext?,
     val stopTokens: List<String>,
+    val trace: CompletionTrace?,
+    val documentSnapshot: DocumentSnapshot?,
 ) {
 
     data class FileDetails(val fileContent: String, val fileExtension: String? = null)
@@ -34,6 +40,8 @@ class InfillRequest private constructor(
         private var dependenciesStructure: Set<ClassStructure>? = null
         private var context: InfillContext? = null
         private var stopTokens: List<String>
+        private var trace: CompletionTrace? = null
+        private var documentSnapshot: DocumentSnapshot? = null
 
         constructor(
             prefix: String,
@@ -48,18 +56,16 @@ class InfillRequest private constructor(
         }
 
         constructor(
-            document: Document,
-            caretOffset: Int,
+            documentSnapshot: DocumentSnapshot,
             type: CompletionType = CompletionType.MULTI_LINE
         ) {
-            prefix =
-                document.getText(TextRange(0, caretOffset))
-                    .truncateText(MAX_PROMPT_TOKENS, false)
-            suffix =
-                document.getText(TextRange(caretOffset, document.textLength))
-                    .truncateText(MAX_PROMPT_TOKENS)
+            val text = documentSnapshot.text
+            val caretOffset = documentSnapshot.caretOffset
+            prefix = text.subSequence(0, caretOffset).truncateText(MAX_PROMPT_TOKENS, false)
+            suffix = text.subSequence(caretOffset, text.length).truncateText(MAX_PROMPT_TOKENS)
             this.caretOffset = caretOffset
             this.stopTokens = getStopTokens(type)
+            this.documentSnapshot = documentSnapshot
         }
 
         fun fileDetails(fileDetails: FileDetails) = apply { this.fileDetails = fileDetails }
@@ -74,6 +80,8 @@ class InfillRequest private constructor(
 
         fun context(context: InfillContext) = apply { this.context = context }
 
+        fun trace(trace: CompletionTrace) = apply { this.trace = trace }
+
         private fun getStopTokens(type: CompletionType): List<String> {
             var whitespaceCount = 0
             val lineSuffix = suffix
@@ -109,6 +117,8 @@ class InfillRequest private constructor(
                 dependenciesStructure,
                 context,
                 stopTokens,
+                trace,
+                documentSnapshot,
             )
         }
     }
@@ -121,16 +131,34 @@ class InfillContext(
 ) {
 
     fun getRepoName(): String = enclosingElement.psiElement.project.name
+
+    /**
+     * Returns the context elements in a stable order, so that prompts built for consecutive
+     * keystrokes share the same leading context and the server can reuse its prompt cache.
+     */
+    fun getOrderedContextElements(): List<ContextElement> =
+        contextElements.sortedWith(compareBy({ it.filePath() }, { it.startOffset() }))
 }
 
-class ContextElement(val psiElement: PsiElement) {
+/**
+ * Source code of a [psiElement], or of the [range] within it if the element is a whole file that
+ * the IDE can't split into PSI elements.
+ */
+class ContextElement(val psiElement: PsiElement, private val range: TextRange? = null) {
     var tokens: Int = -1
 
     fun filePath() = this.psiElement.filePath()
-    fun text() = this.psiElement.readText()
+    fun text(): String {
+        val text = this.psiElement.readText()
+        return range?.let {
+            text.substring(min(it.startOffset, text.length), min(it.endOffset, text.length))
+        } ?: text
+    }
+
+    fun startOffset(): Int = range?.startOffset ?: runReadAction { psiElement.startOffset }
 }
 
-fun String.truncateText(maxTokens: Int, fromStart: Boolean = true): String {
+fun CharSequence.truncateText(maxTokens: Int, fromStart: Boolean = true): String {
     return service<EncodingManager>().truncateText(this, maxTokens, fromStart)
 }
 
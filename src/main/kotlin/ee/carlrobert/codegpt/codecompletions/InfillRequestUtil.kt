@@ -1,49 +1,67 @@
 package ee.carlrobert.codegpt.codecompletions
 
 import com.intellij.codeInsight.inline.completion.InlineCompletionRequest
-import com.intellij.openapi.application.readAction
 import com.intellij.openapi.components.service
-import com.intellij.refactoring.suggested.startOffset
+import com.intellij.openapi.project.Project
 import ee.carlrobert.codegpt.EncodingManager
+import ee.carlrobert.codegpt.codecompletions.CompletionUtil.DocumentSnapshot
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionLatencyRecorder
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionStage
 import ee.carlrobert.codegpt.codecompletions.psi.CompletionContextService
-import ee.carlrobert.codegpt.codecompletions.psi.readText
 import ee.carlrobert.codegpt.codecompletions.psi.structure.PsiStructureProvider
+import ee.carlrobert.codegpt.settings.GeneralSettings
 import ee.carlrobert.codegpt.settings.configuration.ConfigurationSettings
-import ee.carlrobert.codegpt.util.GitUtil
+import ee.carlrobert.codegpt.util.GitDiffCacheService
+import kotlin.time.Duration.Companion.milliseconds
 
 
 object InfillRequestUtil {
 
+    private val CONTEXT_COLLECTION_BUDGET = 150.milliseconds
+
     suspend fun buildInfillRequest(
         request: InlineCompletionRequest,
         type: CompletionType
     ): InfillRequest {
-        val caretOffset = readAction { request.editor.caretModel.offset }
-        val infillRequestBuilder = InfillRequest.Builder(request.document, caretOffset, type)
+        val trace = CompletionLatencyRecorder.getInstance()
+            .startTrace(GeneralSettings.getSelectedService())
+        val documentSnapshot = DocumentSnapshot.capture(request)
+        val caretOffset = documentSnapshot.caretOffset
+        val infillRequestBuilder = trace.measure(CompletionStage.TOKENIZATION) {
+            InfillRequest.Builder(documentSnapshot, type)
+        }
             .fileDetails(
                 InfillRequest.FileDetails(
-                    request.document.text,
-                    request.file.virtualFile.extension
+                    documentSnapshot.text.toString(),
+                    documentSnapshot.fileExtension
                 )
             )
+            .trace(trace)
 
         val project = request.editor.project ?: return infillRequestBuilder.build()
         if (service<ConfigurationSettings>().state.codeCompletionSettings.gitDiffEnabled) {
-            val additionalContext = GitUtil.getCurrentChanges(project)
+            val additionalContext = trace.measure(CompletionStage.GIT_DIFF) {
+                project.service<GitDiffCacheService>().getCurrentChanges()
+            }
             if (!additionalContext.isNullOrEmpty()) {
                 infillRequestBuilder.additionalContext(additionalContext)
             }
         }
 
+        val contextDeadline = System.nanoTime() + CONTEXT_COLLECTION_BUDGET.inWholeNanoseconds
         if (service<ConfigurationSettings>().state.codeCompletionSettings.contextAwareEnabled) {
-            getInfillContext(request, caretOffset)?.let {
+            trace.measure(CompletionStage.PSI_CONTEXT) {
+                getInfillContext(project, request, caretOffset, contextDeadline)
+            }?.let {
                 infillRequestBuilder.context(it)
                 infillRequestBuilder.addRepositoryName(it.getRepoName())
             }
         }
 
         if (service<ConfigurationSettings>().state.codeCompletionSettings.collectDependencyStructure) {
-            val psiStructure = PsiStructureProvider().get(listOf(request.file))
+            val psiStructure = trace.measure(CompletionStage.STRUCTURE) {
+                PsiStructureProvider().get(listOf(request.file), contextDeadline)
+            }
             if (psiStructure.isNotEmpty()) {
                 infillRequestBuilder.addDependenciesStructure(psiStructure)
                 infillRequestBuilder.addRepositoryName(psiStructure.first().repositoryName)
@@ -53,16 +71,17 @@ object InfillRequestUtil {
         return infillRequestBuilder.build()
     }
 
-    private fun getInfillContext(
+    private suspend fun getInfillContext(
+        project: Project,
         request: InlineCompletionRequest,
-        caretOffset: Int
+        caretOffset: Int,
+        deadline: Long
     ): InfillContext? {
-        val infillContext =
-            service<CompletionContextService>().findContext(request.editor, caretOffset)
-                ?: return null
-        val caretInEnclosingElement =
-            caretOffset - infillContext.enclosingElement.psiElement.startOffset
-        val entireText = infillContext.enclosingElement.psiElement.readText()
+        val infillContext = project.service<CompletionContextService>()
+            .findContext(request.editor, caretOffset, deadline)
+            ?: return null
+        val caretInEnclosingElement = caretOffset - infillContext.enclosingElement.startOffset()
+        val entireText = infillContext.enclosingElement.text()
         val prefix = entireText.take(caretInEnclosingElement)
         val suffix =
             if (entireText.length < caretInEnclosingElement) "" else entireText.takeLast(
@@ -0,0 +1,56 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import kotlin.math.ceil
+
+/**
+ * Keeps the last [capacity] samples and answers percentile queries over them.
+ */
+class RollingHistogram(private val capacity: Int) {
+
+    private val samples = LongArray(capacity)
+    private var count = 0
+    private var next = 0
+
+    @Synchronized
+    fun add(value: Long) {
+        samples[next] = value
+        next = (next + 1) % capacity
+        if (count < capacity) {
+            count++
+        }
+    }
+
+    @Synchronized
+    fun size(): Int = count
+
+    /**
+     * Returns the nearest-rank percentile of the recorded samples, or `null` if there are none.
+     *
+     * @param percentile value between 0 and 100
+     */
+    @Synchronized
+    fun percentile(percentile: Double): Long? {
+        if (count == 0) {
+            return null
+        }
+
+        val sorted = samples.copyOf(count).apply { sort() }
+        val rank = ceil(percentile / 100.0 * count).toInt().coerceIn(1, count)
+        return sorted[rank - 1]
+    }
+
+    /**
+     * Returns the most recent samples, newest first.
+     */
+    @Synchronized
+    fun latest(n: Int): LongArray {
+        val size = minOf(n, count)
+        return LongArray(size) { samples[Math.floorMod(next - 1 - it, capacity)] }
+    }
+
+    @Synchronized
+    fun clear() {
+        count = 0
+        next = 0
+    }
+}
@@ -0,0 +1,111 @@
+package ee.carlrobert.codegpt.codecompletions.latency
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import ee.carlrobert.codegpt.codecompletions.RollingHistogram
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import java.io.Writer
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+data class CompletionSpan(
+    val requestId: Long,
+    val stage: CompletionStage,
+    val serviceType: ServiceType?,
+    val timestamp: Long,
+    val durationNanos: Long,
+)
+
+data class StageStatistics(
+    val stage: CompletionStage,
+    val serviceType: ServiceType?,
+    val count: Int,
+    val p50Millis: Double,
+    val p95Millis: Double,
+    val p99Millis: Double,
+)
+
+/**
+ * Records the stage timings of recent inline completion requests. Spans are written into a
+ * fixed-size ring buffer without locking, so that recording never holds up the completion
+ * pipeline; the oldest spans are overwritten once the buffer is full.
+ */
+@Service
+class CompletionLatencyRecorder {
+
+    companion object {
+        private const val CAPACITY = 4096
+
+        @JvmStatic
+        fun getInstance(): CompletionLatencyRecorder = service()
+    }
+
+    private val spans = AtomicReferenceArray<CompletionSpan?>(CAPACITY)
+    private val nextSpan = AtomicLong()
+    private val nextRequestId = AtomicLong()
+    private val objectMapper = ObjectMapper()
+
+    fun startTrace(serviceType: ServiceType?): CompletionTrace {
+        return CompletionTrace(nextRequestId.incrementAndGet(), serviceType, this)
+    }
+
+    fun record(span: CompletionSpan) {
+        spans.set(Math.floorMod(nextSpan.getAndIncrement(), CAPACITY), span)
+    }
+
+    /**
+     * Returns the recorded spans, oldest first.
+     */
+    fun getSpans(): List<CompletionSpan> {
+        val end = nextSpan.get()
+        val start = maxOf(0L, end - CAPACITY)
+        return (start until end).mapNotNull { spans.get(Math.floorMod(it, CAPACITY)) }
+            .sortedBy { it.timestamp }
+    }
+
+    fun getStatistics(): List<StageStatistics> {
+        return getSpans()
+            .groupBy { it.stage to it.serviceType }
+            .map { (key, stageSpans) ->
+                val histogram = RollingHistogram(stageSpans.size)
+                stageSpans.forEach { histogram.add(it.durationNanos) }
+                StageStatistics(
+                    key.first,
+                    key.second,
+                    stageSpans.size,
+                    histogram.percentileMillis(50.0),
+                    histogram.percentileMillis(95.0),
+                    histogram.percentileMillis(99.0),
+                )
+            }
+            .sortedWith(compareBy({ it.stage.ordinal }, { it.serviceType?.ordinal ?: -1 }))
+    }
+
+    fun exportJsonl(writer: Writer) {
+        getSpans().forEach {
+            writer.write(
+                objectMapper.writeValueAsString(
+                    mapOf(
+                        "requestId" to it.requestId,
+                        "stage" to it.stage.name,
+                        "provider" to it.serviceType?.name,
+                        "timestamp" to it.timestamp,
+                        "durationMillis" to it.durationNanos / 1_000_000.0,
+                    )
+                )
+            )
+            writer.write("\n")
+        }
+    }
+
+    fun clear() {
+        for (i in 0 until CAPACITY) {
+            spans.set(i, null)
+        }
+    }
+
+    private fun RollingHistogram.percentileMillis(percentile: Double): Double {
+        return (percentile(percentile) ?: 0L) / 1_000_000.0
+    }
+}
@@ -0,0 +1,14 @@
+package ee.carlrobert.codegpt.codecompletions.latency
+
+enum class CompletionStage(val label: String) {
+    GIT_DIFF("Git diff"),
+    PSI_CONTEXT("PSI context"),
+    STRUCTURE("Dependency structure"),
+    TOKENIZATION("Tokenization"),
+    REQUEST_BUILDING("Request building"),
+    CONNECT("Connect"),
+    TIME_TO_FIRST_TOKEN("Time to first token"),
+    STREAM("Stream"),
+    FORMATTING("Formatting"),
+    TREE_SITTER_REPAIR("Tree-sitter repair"),
+}
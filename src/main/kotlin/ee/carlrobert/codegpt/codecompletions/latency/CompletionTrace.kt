@@ -0,0 +1,57 @@
+package ee.carlrobert.codegpt.codecompletions.latency
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+
+/**
+ * Collects the stage timings of a single inline completion request.
+ */
+class CompletionTrace internal constructor(
+    val requestId: Long,
+    val serviceType: ServiceType?,
+    private val recorder: CompletionLatencyRecorder,
+) {
+
+    @Volatile
+    private var sentAt = 0L
+
+    @Volatile
+    private var firstTokenAt = 0L
+
+    inline fun <T> measure(stage: CompletionStage, block: () -> T): T {
+        val startTime = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(stage, System.nanoTime() - startTime)
+        }
+    }
+
+    fun record(stage: CompletionStage, durationNanos: Long) {
+        recorder.record(
+            CompletionSpan(requestId, stage, serviceType, System.currentTimeMillis(), durationNanos)
+        )
+    }
+
+    fun onRequestSent(sentAt: Long = System.nanoTime()) {
+        this.sentAt = sentAt
+    }
+
+    fun onOpen() {
+        if (sentAt != 0L) {
+            record(CompletionStage.CONNECT, System.nanoTime() - sentAt)
+        }
+    }
+
+    fun onFirstToken() {
+        firstTokenAt = System.nanoTime()
+        if (sentAt != 0L) {
+            record(CompletionStage.TIME_TO_FIRST_TOKEN, firstTokenAt - sentAt)
+        }
+    }
+
+    fun onStreamFinished() {
+        if (firstTokenAt != 0L) {
+            record(CompletionStage.STREAM, System.nanoTime() - firstTokenAt)
+        }
+    }
+}
@@ -1,48 +1,80 @@
 package ee.carlrobert.codegpt.codecompletions.psi
 
 import com.intellij.openapi.application.ApplicationManager
-import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.application.readAction
 import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
 import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiManager
 import ee.carlrobert.codegpt.EncodingManager
 import ee.carlrobert.codegpt.codecompletions.InfillContext
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
 
 @Service(Service.Level.PROJECT)
-class CompletionContextService {
+class CompletionContextService(project: Project) {
 
     companion object {
         private val CONTEXT_FINDERS = mapOf(
             "JAVA" to JavaContextFinder::class.java,
             "Python" to PythonContextFinder::class.java
         )
+        private val PARTIAL_RESULT_GRACE_PERIOD = 50.milliseconds
     }
 
+    private val contextGraphCache = ContextGraphCache(project)
+
     /**
      * Determines the [PsiElement] at the given offset,
      * determines relevant context with the help of [LanguageContextFinder]s
      * and returns the context with the relevant enclosing [PsiElement] and a set of source code [PsiElement]s.
+     *
+     * Runs in a non-blocking read action, which gives way to write actions. Once [deadline] (in
+     * [System.nanoTime] terms) passes, the context found so far is returned, and if even that
+     * can't be completed shortly after, no context is returned.
      */
-    fun findContext(editor: Editor, offset: Int): InfillContext? {
-        return ReadAction.compute<InfillContext, Throwable> {
-            val psiFile = PsiManager.getInstance(editor.project!!).findFile(editor.virtualFile!!)!!
-            val psiElement = psiFile.findElementAt(offset) ?: return@compute null
-            val contextFinderClass = CONTEXT_FINDERS[psiElement.language.id]
-                ?: // No context finder for the language implemented yet
-                return@compute null
-            val contextFinder = ApplicationManager.getApplication().getService(contextFinderClass)
-                ?: // A context finder for the language exists but not available in the used IDE
-                return@compute null
-            val context = contextFinder.findContext(psiElement)
-            val encodingManager = EncodingManager.getInstance()
-            context.enclosingElement.tokens =
-                encodingManager.countTokens(context.enclosingElement.psiElement.text)
-            context.contextElements.forEach {
-                it.tokens = encodingManager.countTokens(it.psiElement.text)
-            }
-            return@compute context
+    suspend fun findContext(editor: Editor, offset: Int, deadline: Long): InfillContext? {
+        val project = editor.project ?: return null
+        val virtualFile = editor.virtualFile ?: return null
+        val remainingTime = (deadline - System.nanoTime()).nanoseconds
+        if (!remainingTime.isPositive()) {
+            return null
+        }
+
+        return withTimeoutOrNull(remainingTime + PARTIAL_RESULT_GRACE_PERIOD) {
+            readAction { findContext(project, virtualFile, offset, deadline) }
         }
+    }
 
+    private fun findContext(
+        project: Project,
+        virtualFile: VirtualFile,
+        offset: Int,
+        deadline: Long
+    ): InfillContext? {
+        val psiFile = PsiManager.getInstance(project).findFile(virtualFile) ?: return null
+        val psiElement = psiFile.findElementAt(offset) ?: return null
+        val contextFinderClass = CONTEXT_FINDERS[psiElement.language.id]
+        val context = if (contextFinderClass == null) {
+            // No PSI based context finder for the language, fall back to the syntax tree
+            service<TreeSitterContextFinder>().findContext(psiFile, offset, deadline)
+        } else {
+            val contextFinder =
+                ApplicationManager.getApplication().getService(contextFinderClass)
+                    ?: // A context finder for the language exists but not available in the used IDE
+                    return null
+            contextGraphCache.findContext(contextFinder, psiElement, deadline)
+        } ?: return null
+        val encodingManager = EncodingManager.getInstance()
+        context.enclosingElement.tokens =
+            encodingManager.countTokens(context.enclosingElement.text())
+        context.contextElements
+            .filter { it.tokens < 0 }
+            .forEach { it.tokens = encodingManager.countTokens(it.text()) }
+        return context
     }
 }
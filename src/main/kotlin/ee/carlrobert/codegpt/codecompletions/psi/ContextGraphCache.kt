@@ -0,0 +1,137 @@
+package ee.carlrobert.codegpt.codecompletions.psi
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.psi.PsiElement
+import com.intellij.psi.util.PsiModificationTracker
+import ee.carlrobert.codegpt.EncodingManager
+import ee.carlrobert.codegpt.codecompletions.ContextElement
+import ee.carlrobert.codegpt.codecompletions.InfillContext
+
+/**
+ * Remembers, per enclosing element, which source elements its references resolved to and how many
+ * tokens they take.
+ *
+ * While the project's PSI modification count is unchanged, the whole context is reused. Otherwise,
+ * the references are collected again, but a reference is only resolved again if it is new, if the
+ * files of the elements it resolved to have changed since, or if the enclosing file has changed
+ * outside the enclosing element. The latter covers changed imports, which can make the same name
+ * resolve to another element, while typing inside the enclosing element keeps the references.
+ *
+ * References left unresolved when the deadline passes are skipped, and resolved by the next
+ * request for the same enclosing element.
+ */
+class ContextGraphCache(private val project: Project) {
+
+    companion object {
+        private const val MAX_ENTRIES = 32
+    }
+
+    private val graphs = object : LinkedHashMap<PsiElement, ContextGraph>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<PsiElement, ContextGraph>) =
+            size > MAX_ENTRIES
+    }
+
+    /**
+     * Must be called within a read action.
+     */
+    fun findContext(
+        finder: ResolvingContextFinder,
+        psiElement: PsiElement,
+        deadline: Long
+    ): InfillContext {
+        val enclosingElement = finder.findEnclosingElement(psiElement)
+        val modificationCount = PsiModificationTracker.getInstance(project).modificationCount
+        val cached = synchronized(graphs) { graphs[enclosingElement] }
+        if (cached != null && cached.complete && cached.psiModificationCount == modificationCount) {
+            return cached.context
+        }
+
+        val surroundingsHash = getSurroundingsHash(enclosingElement)
+        val previousReferences = cached
+            ?.takeIf { it.surroundingsHash == surroundingsHash }
+            ?.references
+            .orEmpty()
+        val references = linkedMapOf<String, ResolvedReference>()
+        var complete = true
+        for (reference in finder.findReferences(enclosingElement)) {
+            ProgressManager.checkCanceled()
+            val key = reference.text
+            if (key in references) {
+                continue
+            }
+
+            val previousReference = previousReferences[key]?.takeIf { it.isUpToDate() }
+            if (previousReference != null) {
+                references[key] = previousReference
+            } else if (System.nanoTime() < deadline) {
+                references[key] = resolve(finder, reference, enclosingElement)
+            } else {
+                complete = false
+            }
+        }
+
+        val context = InfillContext(
+            ContextElement(enclosingElement),
+            references.values
+                .flatMap { it.elements }
+                .distinctBy { it.psiElement }
+                .toSet()
+        )
+        synchronized(graphs) {
+            graphs[enclosingElement] =
+                ContextGraph(modificationCount, surroundingsHash, complete, context, references)
+        }
+        return context
+    }
+
+    /**
+     * Hashes the text of the enclosing file before and after the enclosing element.
+     */
+    private fun getSurroundingsHash(enclosingElement: PsiElement): Int {
+        val text = enclosingElement.containingFile?.viewProvider?.contents ?: return 0
+        val range = enclosingElement.textRange ?: return 0
+        var hash = 1
+        for (i in 0 until range.startOffset) {
+            hash = 31 * hash + text[i].code
+        }
+        for (i in range.endOffset until text.length) {
+            hash = 31 * hash + text[i].code
+        }
+        return hash
+    }
+
+    private fun resolve(
+        finder: ResolvingContextFinder,
+        reference: PsiElement,
+        enclosingElement: PsiElement
+    ): ResolvedReference {
+        val encodingManager = EncodingManager.getInstance()
+        val elements = finder.resolveSourceElements(reference, enclosingElement).map {
+            ContextElement(it).apply { tokens = encodingManager.countTokens(it.text) }
+        }
+        return ResolvedReference(
+            elements,
+            elements.map { it.psiElement.containingFile?.modificationStamp ?: -1 }
+        )
+    }
+
+    private class ContextGraph(
+        val psiModificationCount: Long,
+        val surroundingsHash: Int,
+        val complete: Boolean,
+        val context: InfillContext,
+        val references: Map<String, ResolvedReference>,
+    )
+
+    private class ResolvedReference(
+        val elements: List<ContextElement>,
+        val fileStamps: List<Long>,
+    ) {
+
+        fun isUpToDate(): Boolean = elements.indices.all {
+            val psiElement = elements[it].psiElement
+            psiElement.isValid && psiElement.containingFile?.modificationStamp == fileStamps[it]
+        }
+    }
+}
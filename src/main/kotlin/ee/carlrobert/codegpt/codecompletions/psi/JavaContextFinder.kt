@@ -5,32 +5,29 @@ import com.intellij.psi.*
 import com.intellij.psi.impl.source.PsiClassReferenceType
 import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.psi.util.PsiTypesUtil
-import ee.carlrobert.codegpt.codecompletions.ContextElement
-import ee.carlrobert.codegpt.codecompletions.InfillContext
 import kotlinx.collections.immutable.toImmutableSet
 
 
-class JavaContextFinder : LanguageContextFinder {
+class JavaContextFinder : ResolvingContextFinder {
 
     /**
-     * Finds enclosing [PsiMethod] or [PsiClass] of [psiElement] and
-     * determines source code files of all referenced classes or methods.
+     * Finds enclosing [PsiMethod] or [PsiClass] of [psiElement].
      */
-    override fun findContext(psiElement: PsiElement): InfillContext {
-        val enclosingElement = findEnclosingElement(psiElement)
-        val relevantElements = findRelevantElements(enclosingElement, enclosingElement)
-        val psiTargets = relevantElements.map { findPsiTarget(it) }.flatten().distinct()
-        val sourceElements = psiTargets.mapNotNull { findSourceElement(it) }
-        return InfillContext(
-            ContextElement(enclosingElement),
-            sourceElements.map { ContextElement(it) }.toSet()
-        )
-    }
-
-    private fun findEnclosingElement(psiElement: PsiElement): PsiElement =
+    override fun findEnclosingElement(psiElement: PsiElement): PsiElement =
         findEnclosingContext(psiElement)
             ?: PsiTreeUtil.prevCodeLeaf(psiElement)?.let { findEnclosingContext(it) } ?: psiElement
 
+    override fun findReferences(enclosingElement: PsiElement): Collection<PsiElement> =
+        findRelevantElements(enclosingElement, enclosingElement)
+
+    /**
+     * Determines source code files of the class or method referenced by [reference].
+     */
+    override fun resolveSourceElements(
+        reference: PsiElement,
+        enclosingElement: PsiElement
+    ): List<PsiElement> = findPsiTarget(reference).mapNotNull { findSourceElement(it) }
+
     fun findEnclosingContext(psiElement: PsiElement) =
         PsiTreeUtil.findFirstContext(psiElement, true) { it is PsiMethod || it is PsiClass }
 
@@ -1,11 +1,42 @@
 package ee.carlrobert.codegpt.codecompletions.psi
 
 import com.intellij.psi.PsiElement
+import ee.carlrobert.codegpt.codecompletions.ContextElement
 import ee.carlrobert.codegpt.codecompletions.InfillContext
 
 interface LanguageContextFinder {
     /**
      * Determines relevant enclosing [PsiElement] and [PsiElement]s relevant to the context and returns their source code [PsiElement].
      */
-    fun findContext(psiElement: PsiElement): InfillContext
-}
\ No newline at end of file
+    fun findContext(psiElement: PsiElement): InfillContext?
+}
+
+/**
+ * A [LanguageContextFinder] that resolves each reference of the enclosing element separately, so
+ * that resolution results can be reused by [ContextGraphCache].
+ */
+interface ResolvingContextFinder : LanguageContextFinder {
+
+    fun findEnclosingElement(psiElement: PsiElement): PsiElement
+
+    /**
+     * Finds the elements inside of [enclosingElement] whose declarations are relevant context.
+     */
+    fun findReferences(enclosingElement: PsiElement): Collection<PsiElement>
+
+    /**
+     * Resolves [reference] to the source code elements of its declarations.
+     */
+    fun resolveSourceElements(reference: PsiElement, enclosingElement: PsiElement): List<PsiElement>
+
+    override fun findContext(psiElement: PsiElement): InfillContext {
+        val enclosingElement = findEnclosingElement(psiElement)
+        val sourceElements = findReferences(enclosingElement)
+            .flatMap { resolveSourceElements(it, enclosingElement) }
+            .distinct()
+        return InfillContext(
+            ContextElement(enclosingElement),
+            sourceElements.map { ContextElement(it) }.toSet()
+        )
+    }
+}
@@ -10,34 +10,37 @@ import com.jetbrains.python.psi.impl.PyBuiltinCache
 import com.jetbrains.python.psi.resolve.PyResolveContext
 import com.jetbrains.python.psi.resolve.PyResolveUtil
 import com.jetbrains.python.psi.types.TypeEvalContext
-import ee.carlrobert.codegpt.codecompletions.ContextElement
-import ee.carlrobert.codegpt.codecompletions.InfillContext
 
-class PythonContextFinder : LanguageContextFinder {
+class PythonContextFinder : ResolvingContextFinder {
+
+    override fun findReferences(enclosingElement: PsiElement): Collection<PsiElement> =
+        findRelevantElements(enclosingElement, enclosingElement)
 
     /**
-     * Finds enclosing [PyFunction] or [PyClass] of [psiElement] and
-     * determines source code elements of all used [PyReferenceExpression]s for the context.
+     * Determines source code elements of the declarations of the [PyReferenceExpression].
      */
-    override fun findContext(psiElement: PsiElement): InfillContext {
-        val enclosingElement = findEnclosingElement(psiElement)
-        val referenceExpressions = findRelevantElements(enclosingElement, enclosingElement)
-        val declarations =
-            referenceExpressions.map { findDeclarations(it, psiElement.containingFile.project) }.flatten().distinct()
-                .filter {
-                    // Filter out elements whose source code is inside the enclosingElement
-                    // e.g. for something like this: [i for i in range(10)]  findRelevantElements()
-                    // would return a "PyReferenceExpression: i" which is irrelevant
-                    !it.containingFile.equals(enclosingElement.containingFile) || !enclosingElement.textRange.contains(it.textRange)
-                }
-        val sourceElements = declarations.mapNotNull { findSourceElement(it) }
-        return InfillContext(
-            ContextElement(enclosingElement),
-            sourceElements.map { ContextElement(it) }.toSet()
-        )
+    override fun resolveSourceElements(
+        reference: PsiElement,
+        enclosingElement: PsiElement
+    ): List<PsiElement> {
+        if (reference !is PyReferenceExpression) {
+            return emptyList()
+        }
+
+        return findDeclarations(reference, reference.project)
+            .filter {
+                // Filter out elements whose source code is inside the enclosingElement
+                // e.g. for something like this: [i for i in range(10)]  findRelevantElements()
+                // would return a "PyReferenceExpression: i" which is irrelevant
+                !it.containingFile.equals(enclosingElement.containingFile) || !enclosingElement.textRange.contains(it.textRange)
+            }
+            .mapNotNull { findSourceElement(it) }
     }
 
-    fun findEnclosingElement(psiElement: PsiElement): PsiElement = findEnclosingContext(psiElement)
+    /**
+     * Finds enclosing [PyFunction] or [PyClass] of [psiElement].
+     */
+    override fun findEnclosingElement(psiElement: PsiElement): PsiElement = findEnclosingContext(psiElement)
         ?: PsiTreeUtil.prevCodeLeaf(psiElement)?.let { findEnclosingContext(it) } ?: psiElement
 
     private fun findEnclosingContext(psiElement: PsiElement) =
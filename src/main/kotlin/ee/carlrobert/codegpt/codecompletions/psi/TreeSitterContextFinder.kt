@@ -0,0 +1,91 @@
+package ee.carlrobert.codegpt.codecompletions.psi
+
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.fileEditor.FileEditorManager
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import ee.carlrobert.codegpt.codecompletions.ContextElement
+import ee.carlrobert.codegpt.codecompletions.DocumentSyntaxTreeService
+import ee.carlrobert.codegpt.codecompletions.InfillContext
+import ee.carlrobert.codegpt.treesitter.SyntaxContextFinder
+import ee.carlrobert.codegpt.treesitter.TreeSitterLanguage
+import java.util.concurrent.TimeUnit
+
+/**
+ * Finds context for languages without a PSI based [LanguageContextFinder], using tree-sitter
+ * queries. Definitions are looked up in the current file first, then in the other open files of
+ * the same language, until the time budget runs out.
+ */
+@Service
+class TreeSitterContextFinder : LanguageContextFinder {
+
+    companion object {
+        private const val TIME_BUDGET_MS = 40L
+        private const val MAX_OPEN_FILES = 10
+    }
+
+    override fun findContext(psiElement: PsiElement): InfillContext? {
+        return findContext(psiElement.containingFile, psiElement.textOffset, Long.MAX_VALUE)
+    }
+
+    fun findContext(psiFile: PsiFile, offset: Int, deadline: Long): InfillContext? {
+        val virtualFile = psiFile.virtualFile ?: return null
+        val language = TreeSitterLanguage.findByExtension(virtualFile.extension) ?: return null
+        val finder = SyntaxContextFinder.getInstance()
+        if (!finder.isSupported(language)) {
+            return null
+        }
+
+        val document = psiFile.viewProvider.document ?: return null
+        val findDeadline =
+            minOf(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIME_BUDGET_MS))
+        val context = finder.findContext(
+            language,
+            service<DocumentSyntaxTreeService>().getSyntaxTree(document),
+            document.modificationStamp,
+            document.text,
+            offset,
+            findDeadline
+        ) ?: return null
+
+        val contextElements = context.definitions.map { psiFile.toContextElement(it.range) }
+            .toMutableSet()
+        val unresolvedNames = context.referencedNames.toMutableSet()
+        context.definitions.forEach { unresolvedNames.remove(it.name) }
+        for (file in findOpenFiles(psiFile, language)) {
+            ProgressManager.checkCanceled()
+            if (unresolvedNames.isEmpty() || System.nanoTime() > findDeadline) {
+                break
+            }
+
+            val openDocument = FileDocumentManager.getInstance().getDocument(file) ?: continue
+            val openPsiFile = PsiManager.getInstance(psiFile.project).findFile(file) ?: continue
+            finder.findDefinitions(language, openDocument.text, unresolvedNames, findDeadline)
+                .forEach {
+                    contextElements.add(openPsiFile.toContextElement(it.range))
+                    unresolvedNames.remove(it.name)
+                }
+        }
+
+        return InfillContext(psiFile.toContextElement(context.enclosingRange), contextElements)
+    }
+
+    private fun findOpenFiles(psiFile: PsiFile, language: TreeSitterLanguage): List<VirtualFile> {
+        return FileEditorManager.getInstance(psiFile.project).openFiles
+            .filter {
+                it != psiFile.virtualFile
+                        && TreeSitterLanguage.findByExtension(it.extension) == language
+            }
+            .take(MAX_OPEN_FILES)
+    }
+
+    private fun PsiFile.toContextElement(range: SyntaxContextFinder.Range): ContextElement {
+        return ContextElement(this, TextRange(range.startOffset, range.endOffset))
+    }
+}
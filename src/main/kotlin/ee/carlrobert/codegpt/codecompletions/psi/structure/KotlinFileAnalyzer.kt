@@ -7,6 +7,7 @@ import com.intellij.psi.PsiManager
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.PsiShortNamesCache
 import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.containers.Interner
 import ee.carlrobert.codegpt.codecompletions.psi.structure.models.*
 import org.jetbrains.kotlin.asJava.classes.KtLightClass
 import org.jetbrains.kotlin.lexer.KtTokens
@@ -15,6 +16,7 @@ import org.jetbrains.kotlin.psi.*
 class KotlinFileAnalyzer(
     private val psiFileQueue: PsiFileQueue,
     private val ktFile: KtFile,
+    private val typeNames: Interner<String> = Interner.createStringInterner(),
 ) {
 
     private val psiManager = PsiManager.getInstance(ktFile.project)
@@ -95,7 +97,7 @@ class KotlinFileAnalyzer(
 
     private fun getClassStructure(ktClass: KtClassOrObject): ClassStructure? {
         val classNameString = ktClass.fqName?.asString() ?: return null
-        val className = ClassName(classNameString)
+        val className = ClassName(typeNames.intern(classNameString))
 
         val classType = when {
             ktClass is KtClass && ktClass.isEnum() -> ClassType.ENUM
@@ -107,10 +109,10 @@ class KotlinFileAnalyzer(
 
         val classStructure = ClassStructure(
             name = className,
-            simpleName = ClassName(ktClass.name.orEmpty()),
+            simpleName = ClassName(typeNames.intern(ktClass.name.orEmpty())),
             classType = classType,
             modifierList = getModifiers(ktClass),
-            packageName = ktClass.fqName?.parent()?.asString().orEmpty(),
+            packageName = typeNames.intern(ktClass.fqName?.parent()?.asString().orEmpty()),
             repositoryName = ktFile.project.name,
         )
 
@@ -262,7 +264,7 @@ class KotlinFileAnalyzer(
 
         putTypeToAnalyzeQueue(resolvedType)
 
-        return ClassName(resolvedType)
+        return ClassName(typeNames.intern(resolvedType))
     }
 
     private fun getTypesInPackage(packagePath: String?): List<String> {
@@ -16,4 +16,11 @@ class PsiFileQueue(
     fun put(psiFile: PsiFile) {
         queue.add(psiFile)
     }
+
+    @Synchronized
+    fun drain(): List<PsiFile> {
+        val psiFiles = queue.toList()
+        queue.clear()
+        return psiFiles
+    }
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package ee.carlrobert.codegpt.codecompletions.psi.structure
+
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.util.PsiModificationTracker
+import com.intellij.util.containers.Interner
+import ee.carlrobert.codegpt.codecompletions.psi.structure.models.ClassStructure
+import org.jetbrains.kotlin.psi.KtFile
+
+/**
+ * Caches the class structures of each analyzed file, along with the files it depends on.
+ *
+ * An entry is reused without further checks while no PSI has changed in the project. Once
+ * something has changed, the entry is still reused if its own file's modification stamp is
+ * unchanged, so only the edited files are analyzed again.
+ */
+@Service(Service.Level.PROJECT)
+class PsiStructureCache(private val project: Project) {
+
+    companion object {
+        private const val MAX_ENTRIES = 1024
+    }
+
+    private val typeNames = Interner.createWeakInterner<String>()
+    private val entries = object : LinkedHashMap<VirtualFile, FileStructure>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<VirtualFile, FileStructure>) =
+            size > MAX_ENTRIES
+    }
+
+    /**
+     * Returns the class structures declared in the given file and adds the files they depend on
+     * to the queue. Must be called within a read action.
+     */
+    fun analyze(ktFile: KtFile, psiFileQueue: PsiFileQueue): Set<ClassStructure> {
+        val fileStructure = getFileStructure(ktFile)
+        val psiManager = PsiManager.getInstance(project)
+        fileStructure.dependencies
+            .filter { it.isValid }
+            .mapNotNull { psiManager.findFile(it) }
+            .forEach { psiFileQueue.put(it) }
+        return fileStructure.classStructures
+    }
+
+    private fun getFileStructure(ktFile: KtFile): FileStructure {
+        val virtualFile = ktFile.virtualFile ?: return createFileStructure(ktFile, -1)
+        val modificationCount = PsiModificationTracker.getInstance(project).modificationCount
+        synchronized(entries) {
+            val cached = entries[virtualFile]
+            if (cached != null && cached.psiModificationCount == modificationCount) {
+                return cached
+            }
+            if (cached != null && cached.modificationStamp == ktFile.modificationStamp) {
+                return cached.copy(psiModificationCount = modificationCount).also {
+                    entries[virtualFile] = it
+                }
+            }
+        }
+
+        val fileStructure = createFileStructure(ktFile, modificationCount)
+        synchronized(entries) {
+            entries[virtualFile] = fileStructure
+        }
+        return fileStructure
+    }
+
+    private fun createFileStructure(ktFile: KtFile, modificationCount: Long): FileStructure {
+        val dependencyQueue = PsiFileQueue(emptyList())
+        val classStructures = KotlinFileAnalyzer(dependencyQueue, ktFile, typeNames).analyze()
+        return FileStructure(
+            modificationStamp = ktFile.modificationStamp,
+            psiModificationCount = modificationCount,
+            classStructures = classStructures,
+            dependencies = dependencyQueue.drain()
+                .mapNotNull(PsiFile::getVirtualFile)
+                .distinct()
+        )
+    }
+
+    private data class FileStructure(
+        val modificationStamp: Long,
+        val psiModificationCount: Long,
+        val classStructures: Set<ClassStructure>,
+        val dependencies: List<VirtualFile>,
+    )
+}
@@ -1,36 +1,64 @@
 package ee.carlrobert.codegpt.codecompletions.psi.structure
 
 import com.intellij.openapi.application.ApplicationManager
-import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.application.readAction
+import com.intellij.openapi.components.service
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.psi.PsiFile
 import ee.carlrobert.codegpt.codecompletions.psi.structure.models.ClassStructure
+import kotlinx.coroutines.withTimeoutOrNull
 import org.jetbrains.kotlin.psi.KtFile
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
 
 class PsiStructureProvider {
 
+    companion object {
+        private val PARTIAL_RESULT_GRACE_PERIOD = 50.milliseconds
+    }
+
     private val kotlinFileAnalyzerAvailable: Boolean =
         ApplicationManager.getApplication().hasComponent(KotlinFileAnalyzer::class.java)
 
-    fun get(psiFiles: List<PsiFile>): Set<ClassStructure> =
-        ReadAction.compute<Set<ClassStructure>, Throwable> {
-            val classStructureSet = mutableSetOf<ClassStructure>()
-            val processedPsiFiles = mutableSetOf<PsiFile?>()
-            val psiFileQueue = PsiFileQueue(psiFiles)
+    /**
+     * Collects the class structures of the given files and their dependencies in a non-blocking
+     * read action. Once [deadline] (in [System.nanoTime] terms) passes, the structures collected
+     * so far are returned.
+     */
+    suspend fun get(psiFiles: List<PsiFile>, deadline: Long): Set<ClassStructure> {
+        val remainingTime = (deadline - System.nanoTime()).nanoseconds
+        if (!remainingTime.isPositive()) {
+            return emptySet()
+        }
+
+        return withTimeoutOrNull(remainingTime + PARTIAL_RESULT_GRACE_PERIOD) {
+            readAction { collect(psiFiles, deadline) }
+        } ?: emptySet()
+    }
 
-            while (true) {
-                val psiFile = psiFileQueue.pop()
-                when {
-                    processedPsiFiles.contains(psiFile) -> Unit
+    private fun collect(psiFiles: List<PsiFile>, deadline: Long): Set<ClassStructure> {
+        val classStructureSet = mutableSetOf<ClassStructure>()
+        val processedPsiFiles = mutableSetOf<PsiFile?>()
+        val psiFileQueue = PsiFileQueue(psiFiles)
 
-                    kotlinFileAnalyzerAvailable && psiFile is KtFile -> {
-                        classStructureSet.addAll(KotlinFileAnalyzer(psiFileQueue, psiFile).analyze())
-                        processedPsiFiles.add(psiFile)
-                    }
+        while (System.nanoTime() < deadline) {
+            ProgressManager.checkCanceled()
+            val psiFile = psiFileQueue.pop()
+            when {
+                processedPsiFiles.contains(psiFile) -> Unit
 
-                    psiFile == null -> break
+                kotlinFileAnalyzerAvailable && psiFile is KtFile -> {
+                    classStructureSet.addAll(
+                        psiFile.project.service<PsiStructureCache>()
+                            .analyze(psiFile, psiFileQueue)
+                    )
+                    processedPsiFiles.add(psiFile)
                 }
-            }
 
-            return@compute classStructureSet.toSet()
+                psiFile == null -> break
+            }
         }
-}
\ No newline at end of file
+
+        return classStructureSet.toSet()
+    }
+}
@@ -0,0 +1,153 @@
+package ee.carlrobert.codegpt.completions.llama
+
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import ee.carlrobert.codegpt.completions.CompletionClientProvider
+import ee.carlrobert.codegpt.credentials.CredentialsStore.CredentialKey
+import ee.carlrobert.codegpt.credentials.CredentialsStore.getCredential
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.llm.PropertiesLoader
+import ee.carlrobert.llm.client.DeserializationUtil.OBJECT_MAPPER
+import ee.carlrobert.llm.client.llama.completion.LlamaCompletionRequest
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.sse.EventSource
+import okhttp3.sse.EventSources.createFactory
+
+/**
+ * The llama-server slot a request is pinned to. Code completions keep to one slot so that the
+ * server can reuse the evaluated prompt of the previous keystroke; chat requests are left to the
+ * server, which picks the idle slot with the most similar cached prompt.
+ */
+enum class LlamaSlot(val id: Int, val label: String) {
+    CODE_COMPLETION(0, "Code completion"),
+    CHAT(-1, "Chat"),
+}
+
+data class LlamaSlotStatistics(
+    val slot: LlamaSlot,
+    val requests: Int,
+    val cachedTokens: Long,
+    val evaluatedTokens: Long,
+    val sharedPrefixChars: Long,
+    val promptChars: Long,
+) {
+    val cachedRatio: Double
+        get() = if (cachedTokens + evaluatedTokens == 0L) 0.0
+        else cachedTokens.toDouble() / (cachedTokens + evaluatedTokens)
+}
+
+/**
+ * Sends llama.cpp requests with prompt caching enabled and keeps track of how much of each
+ * prompt the server could reuse.
+ *
+ * The llm-client request has no prompt caching fields and its stream listener drops the
+ * prompt evaluation timings, so the `/completion` request is sent here. It is serialized with
+ * the client's mapper and addressed the same way as [CompletionClientProvider.getLlamaClient].
+ */
+@Service
+class LlamaPromptCache {
+
+    companion object {
+        @JvmStatic
+        fun getInstance(): LlamaPromptCache = service()
+
+        @JvmStatic
+        fun isEnabled(): Boolean = LlamaSettings.getCurrentState().isPromptCacheEnabled
+    }
+
+    private class SlotState(val slot: LlamaSlot) {
+        var lastPrompt: String? = null
+        var requests = 0
+        var cachedTokens = 0L
+        var evaluatedTokens = 0L
+        var sharedPrefixChars = 0L
+        var promptChars = 0L
+    }
+
+    private val slots = LlamaSlot.entries.associateWith { SlotState(it) }
+
+    fun getCompletionAsync(
+        request: LlamaCompletionRequest,
+        slot: LlamaSlot,
+        eventListener: CompletionEventListener<String>
+    ): EventSource {
+        val body = OBJECT_MAPPER.valueToTree<ObjectNode>(request)
+        if (!body.path("stream").asBoolean(false)) {
+            return CompletionClientProvider.getLlamaClient().getChatCompletionAsync(request, eventListener)
+        }
+        body.put("cache_prompt", true).put("id_slot", slot.id)
+        onPromptSent(slot, body.path("prompt").asText(""))
+
+        return createFactory(CompletionClientProvider.getDefaultClient()).newEventSource(
+            buildHttpRequest(OBJECT_MAPPER.writeValueAsString(body)),
+            LlamaPromptCacheEventSourceListener(eventListener) { cachedTokens, evaluatedTokens ->
+                onPromptEvaluated(slot, cachedTokens, evaluatedTokens)
+            }
+        )
+    }
+
+    fun getStatistics(): List<LlamaSlotStatistics> = synchronized(slots) {
+        slots.values
+            .filter { it.requests > 0 }
+            .map {
+                LlamaSlotStatistics(
+                    it.slot,
+                    it.requests,
+                    it.cachedTokens,
+                    it.evaluatedTokens,
+                    it.sharedPrefixChars,
+                    it.promptChars
+                )
+            }
+    }
+
+    fun clear() = synchronized(slots) {
+        slots.values.forEach {
+            it.requests = 0
+            it.cachedTokens = 0
+            it.evaluatedTokens = 0
+            it.sharedPrefixChars = 0
+            it.promptChars = 0
+        }
+    }
+
+    private fun onPromptSent(slot: LlamaSlot, prompt: String) = synchronized(slots) {
+        val state = slots.getValue(slot)
+        state.lastPrompt?.let {
+            state.sharedPrefixChars += it.commonPrefixWith(prompt).length
+        }
+        state.promptChars += prompt.length
+        state.lastPrompt = prompt
+    }
+
+    private fun onPromptEvaluated(slot: LlamaSlot, cachedTokens: Int, evaluatedTokens: Int) =
+        synchronized(slots) {
+            val state = slots.getValue(slot)
+            state.requests++
+            state.cachedTokens += cachedTokens
+            state.evaluatedTokens += evaluatedTokens
+        }
+
+    private fun buildHttpRequest(body: String): Request {
+        val settings = LlamaSettings.getCurrentState()
+        val host = when {
+            !settings.isRunLocalServer -> settings.baseHost.removeSuffix("/")
+            settings.serverPort == null -> PropertiesLoader.getValue("llama.baseUrl")
+            else -> "http://localhost:${settings.serverPort}"
+        }
+        val requestBuilder = Request.Builder()
+            .url("$host/completion")
+            .header("Accept", "text/event-stream")
+            .post(body.toRequestBody("application/json".toMediaType()))
+        if (!settings.isRunLocalServer) {
+            getCredential(CredentialKey.LlamaApiKey)
+                ?.takeIf { it.isNotBlank() }
+                ?.let { requestBuilder.header("Authorization", "Bearer $it") }
+        }
+        return requestBuilder.build()
+    }
+}
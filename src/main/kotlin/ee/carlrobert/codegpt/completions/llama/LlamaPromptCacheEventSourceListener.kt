@@ -0,0 +1,84 @@
+package ee.carlrobert.codegpt.completions.llama
+
+import com.fasterxml.jackson.databind.JsonNode
+import ee.carlrobert.llm.client.DeserializationUtil.OBJECT_MAPPER
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.Response
+import okhttp3.sse.EventSource
+import okhttp3.sse.EventSourceListener
+
+/**
+ * Reads a llama-server `/completion` stream. The final event reports how many prompt tokens
+ * were taken from the slot's cache and how many had to be evaluated.
+ */
+class LlamaPromptCacheEventSourceListener(
+    private val listener: CompletionEventListener<String>,
+    private val onPromptEvaluated: (cachedTokens: Int, evaluatedTokens: Int) -> Unit,
+) : EventSourceListener() {
+
+    private val messageBuilder = StringBuilder()
+
+    @Volatile
+    private var finished = false
+
+    override fun onOpen(eventSource: EventSource, response: Response) {
+        listener.onOpen()
+    }
+
+    override fun onEvent(eventSource: EventSource, id: String?, type: String?, data: String) {
+        val event = OBJECT_MAPPER.readTree(data)
+        if (event.has("error")) {
+            finished = true
+            listener.onError(ErrorDetails(event.getErrorMessage()), RuntimeException(data))
+            return
+        }
+
+        val content = event.path("content").asText("")
+        if (content.isNotEmpty()) {
+            messageBuilder.append(content)
+            listener.onMessage(content, eventSource)
+        }
+
+        if (event.path("stop").asBoolean(false)) {
+            val promptTokens = event.path("tokens_evaluated").asInt(0)
+            val evaluatedTokens = event.path("timings").path("prompt_n").asInt(promptTokens)
+            onPromptEvaluated(maxOf(0, promptTokens - evaluatedTokens), evaluatedTokens)
+            finish()
+        }
+    }
+
+    override fun onClosed(eventSource: EventSource) {
+        finish()
+    }
+
+    override fun onFailure(eventSource: EventSource, t: Throwable?, response: Response?) {
+        if (finished) {
+            return
+        }
+        finished = true
+
+        if (t?.message == "Canceled") {
+            listener.onCancelled(messageBuilder)
+            return
+        }
+
+        val message = response?.body?.string()
+            ?.let { runCatching { OBJECT_MAPPER.readTree(it).getErrorMessage() }.getOrNull() ?: it }
+            ?: t?.message
+            ?: "Unknown llama.cpp server error"
+        listener.onError(ErrorDetails(message), t ?: RuntimeException(message))
+    }
+
+    private fun finish() {
+        if (!finished) {
+            finished = true
+            listener.onComplete(messageBuilder)
+        }
+    }
+
+    private fun JsonNode.getErrorMessage(): String {
+        val error = path("error")
+        return if (error.isTextual) error.asText() else error.path("message").asText(toString())
+    }
+}
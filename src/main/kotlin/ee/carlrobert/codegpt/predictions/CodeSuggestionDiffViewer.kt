@@ -33,6 +33,7 @@ import com.intellij.util.ui.JBUI
 import com.intellij.util.ui.components.BorderLayoutPanel
 import ee.carlrobert.codegpt.CodeGPTBundle
 import ee.carlrobert.codegpt.CodeGPTKeys
+import ee.carlrobert.codegpt.codecompletions.CompletionLineBuffer
 import java.awt.BorderLayout
 import java.awt.Dimension
 import java.awt.FlowLayout
@@ -297,7 +298,7 @@ class CodeSuggestionDiffViewer(
             }
 
             editor.getUserData(CodeGPTKeys.EDITOR_PREDICTION_DIFF_VIEWER)?.dispose()
-            editor.putUserData(CodeGPTKeys.REMAINING_EDITOR_COMPLETION, null)
+            CompletionLineBuffer.clear(editor)
             InlineCompletionSession.getOrNull(editor)?.let {
                 if (it.isActive()) {
                     InlineCompletionContext.getOrNull(editor)?.clear()
@@ -22,7 +22,7 @@ import ee.carlrobert.codegpt.ui.OverlayUtil
 import ee.carlrobert.codegpt.ui.OverlayUtil.getDefaultNotification
 import ee.carlrobert.codegpt.util.EditorDiffUtil.createDiffRequest
 import ee.carlrobert.codegpt.util.EditorUtil
-import ee.carlrobert.codegpt.util.GitUtil
+import ee.carlrobert.codegpt.util.GitDiffCacheService
 import ee.carlrobert.llm.client.codegpt.request.prediction.AutocompletionPredictionRequest
 import ee.carlrobert.llm.client.codegpt.request.prediction.DirectPredictionRequest
 import ee.carlrobert.llm.client.codegpt.request.prediction.PastePredictionRequest
@@ -188,7 +188,7 @@ private fun createDirectPredictionRequest(editor: Editor): DirectPredictionReque
             customPrompt =
                 service<PromptsSettings>().state.coreActions.codeAssistant.instructions
             cursorOffset = offset ?: runReadAction { editor.caretModel.offset }
-            gitChanges = GitUtil.getCurrentChanges(editor.project!!)
+            gitChanges = editor.project!!.service<GitDiffCacheService>().getCurrentChanges()
             openFiles = EditorUtil.getOpenFiles(editor.project!!)
             conversationMessages = messages.toList()
         }
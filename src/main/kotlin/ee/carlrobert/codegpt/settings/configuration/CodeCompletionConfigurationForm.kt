@@ -1,10 +1,16 @@
 package ee.carlrobert.codegpt.settings.configuration
 
 import com.intellij.openapi.components.service
+import com.intellij.openapi.ui.ComboBox
 import com.intellij.openapi.ui.DialogPanel
+import com.intellij.ui.SimpleListCellRenderer
 import com.intellij.ui.components.JBCheckBox
+import com.intellij.ui.components.fields.IntegerField
 import com.intellij.ui.dsl.builder.panel
 import ee.carlrobert.codegpt.CodeGPTBundle
+import ee.carlrobert.codegpt.codecompletions.CodeCompletionStreamPolicy
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.codegpt.settings.service.ServiceType.*
 
 class CodeCompletionConfigurationForm {
 
@@ -26,6 +32,29 @@ class CodeCompletionConfigurationForm {
         service<ConfigurationSettings>().state.codeCompletionSettings.collectDependencyStructure
     )
 
+    private val earlyStreamTerminationCheckBox = JBCheckBox(
+        CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.earlyStreamTermination.title"),
+        service<ConfigurationSettings>().state.codeCompletionSettings.earlyStreamTerminationEnabled
+    )
+
+    private val maxCompletionLinesFields = CODE_COMPLETION_SERVICES.associateWith {
+        IntegerField(it.label, 2, 1000).apply {
+            columns = 6
+            value = getMaxCompletionLines(service<ConfigurationSettings>().state.codeCompletionSettings, it)
+        }
+    }
+
+    private val hedgingCheckBox = JBCheckBox(
+        CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.hedging.title"),
+        service<ConfigurationSettings>().state.codeCompletionSettings.hedgingEnabled
+    )
+
+    private val hedgingServiceComboBox =
+        ComboBox(CODE_COMPLETION_SERVICES).apply {
+            renderer = SimpleListCellRenderer.create("") { it.label }
+            selectedItem = getHedgingServiceType(service<ConfigurationSettings>().state.codeCompletionSettings)
+        }
+
     fun createPanel(): DialogPanel {
         return panel {
             row {
@@ -44,6 +73,29 @@ class CodeCompletionConfigurationForm {
                 cell(collectDependencyStructureBox)
                     .comment(CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.collectDependencyStructure.description"))
             }
+            row {
+                cell(earlyStreamTerminationCheckBox)
+                    .comment(CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.earlyStreamTermination.description"))
+            }
+            indent {
+                maxCompletionLinesFields.forEach { (serviceType, field) ->
+                    row(CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.maxCompletionLines.label", serviceType.label)) {
+                        cell(field)
+                    }
+                }
+                row {
+                    comment(CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.maxCompletionLines.comment"))
+                }
+            }
+            row {
+                cell(hedgingCheckBox)
+                    .comment(CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.hedging.description"))
+            }
+            indent {
+                row(CodeGPTBundle.get("configurationConfigurable.section.codeCompletion.hedgingService.label")) {
+                    cell(hedgingServiceComboBox)
+                }
+            }
         }
     }
 
@@ -51,6 +103,12 @@ class CodeCompletionConfigurationForm {
         multiLineCompletionsCheckBox.isSelected = prevState.multiLineEnabled
         treeSitterProcessingCheckBox.isSelected = prevState.treeSitterProcessingEnabled
         gitDiffCheckBox.isSelected = prevState.gitDiffEnabled
+        earlyStreamTerminationCheckBox.isSelected = prevState.earlyStreamTerminationEnabled
+        maxCompletionLinesFields.forEach { (serviceType, field) ->
+            field.value = getMaxCompletionLines(prevState, serviceType)
+        }
+        hedgingCheckBox.isSelected = prevState.hedgingEnabled
+        hedgingServiceComboBox.selectedItem = getHedgingServiceType(prevState)
     }
 
     fun getFormState(): CodeCompletionSettingsState {
@@ -59,6 +117,28 @@ class CodeCompletionConfigurationForm {
             this.treeSitterProcessingEnabled = treeSitterProcessingCheckBox.isSelected
             this.gitDiffEnabled = gitDiffCheckBox.isSelected
             this.collectDependencyStructure = collectDependencyStructureBox.isSelected
+            this.earlyStreamTerminationEnabled = earlyStreamTerminationCheckBox.isSelected
+            this.maxCompletionLines = maxCompletionLinesFields
+                .map { (serviceType, field) -> serviceType.name to field.value }
+                .toMap(mutableMapOf())
+            this.hedgingEnabled = hedgingCheckBox.isSelected
+            this.hedgingServiceType = (hedgingServiceComboBox.selectedItem as ServiceType).name
         }
     }
+
+    private fun getMaxCompletionLines(
+        state: CodeCompletionSettingsState,
+        serviceType: ServiceType
+    ): Int {
+        return state.maxCompletionLines[serviceType.name]
+            ?: CodeCompletionStreamPolicy.DEFAULT_MAX_LINES
+    }
+
+    private fun getHedgingServiceType(state: CodeCompletionSettingsState): ServiceType {
+        return ServiceType.values().find { it.name == state.hedgingServiceType } ?: LLAMA_CPP
+    }
+
+    companion object {
+        private val CODE_COMPLETION_SERVICES = arrayOf(CODEGPT, OPENAI, CUSTOM_OPENAI, LLAMA_CPP, OLLAMA)
+    }
 }
\ No newline at end of file
@@ -45,4 +45,8 @@ class CodeCompletionSettingsState : BaseState() {
     var gitDiffEnabled by property(true)
     var collectDependencyStructure by property(true)
     var contextAwareEnabled by property(false)
+    var earlyStreamTerminationEnabled by property(true)
+    var maxCompletionLines by map<String, Int>()
+    var hedgingEnabled by property(false)
+    var hedgingServiceType by string()
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.application.runUndoTransparentWriteAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.thisLogger
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardOpenOption.APPEND
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Appends streamed chat output to the `~/code-gpt-output.md` transcript, if the user created
+ * that file. Chunks are buffered and flushed on a background thread, either every
+ * [FLUSH_INTERVAL_MS] or once [FLUSH_SIZE] characters are pending. While the transcript's
+ * document is loaded, each batch is appended to it in a single write action, so that it merges
+ * with unsaved edits of the document. Otherwise, the batch is appended to the file, and the file
+ * is refreshed at most every [REFRESH_INTERVAL_MS].
+ */
+@Service
+class ChatTranscriptWriter : Disposable {
+
+    companion object {
+        private val logger = thisLogger()
+
+        private const val FLUSH_INTERVAL_MS = 100L
+        private const val FLUSH_SIZE = 8 * 1024
+        private const val REFRESH_INTERVAL_MS = 250L
+
+        @JvmStatic
+        fun getInstance(): ChatTranscriptWriter = service()
+
+        @JvmStatic
+        fun getTranscriptFile(): File = File(System.getProperty("user.home"), "code-gpt-output.md")
+    }
+
+    private val executor =
+        AppExecutorUtil.createBoundedScheduledExecutorService("CodeGPT Transcript Writer", 1)
+    private val lock = Any()
+    private val pending = StringBuilder()
+    private var flushTask: ScheduledFuture<*>? = null
+    private var refreshTask: ScheduledFuture<*>? = null
+    private var lastRefreshTime = 0L
+
+    fun startSection(header: String) {
+        append(header)
+    }
+
+    fun append(text: String) {
+        if (text.isEmpty()) {
+            return
+        }
+
+        synchronized(lock) {
+            pending.append(text)
+            if (pending.length >= FLUSH_SIZE) {
+                flushTask?.cancel(false)
+                flushTask = executor.schedule({ flush() }, 0, TimeUnit.MILLISECONDS)
+            } else if (flushTask == null) {
+                flushTask = executor.schedule({ flush() }, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    private fun flush() {
+        val text = synchronized(lock) {
+            flushTask = null
+            pending.toString().also { pending.setLength(0) }
+        }
+        if (text.isEmpty() || !getTranscriptFile().exists()) {
+            return
+        }
+        if (!appendToDocument(text)) {
+            appendToFile(text)
+        }
+    }
+
+    private fun appendToDocument(text: String): Boolean {
+        val virtualFile = LocalFileSystem.getInstance().findFileByIoFile(getTranscriptFile())
+            ?: return false
+        var appended = false
+        ApplicationManager.getApplication().invokeAndWait({
+            val document = FileDocumentManager.getInstance().getCachedDocument(virtualFile)
+                ?.takeIf { it.isWritable }
+                ?: return@invokeAndWait
+            runUndoTransparentWriteAction {
+                document.insertString(document.textLength, StringUtil.convertLineSeparators(text))
+            }
+            appended = true
+        }, ModalityState.defaultModalityState())
+        return appended
+    }
+
+    private fun appendToFile(text: String) {
+        try {
+            // The IDE may replace the file when saving its document, so it's reopened per batch
+            FileChannel.open(getTranscriptFile().toPath(), WRITE, APPEND).use { channel ->
+                val buffer = ByteBuffer.wrap(text.toByteArray(Charsets.UTF_8))
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer)
+                }
+            }
+        } catch (e: NoSuchFileException) {
+            return
+        } catch (e: IOException) {
+            logger.warn("Unable to write the chat transcript", e)
+            return
+        }
+        scheduleRefresh()
+    }
+
+    private fun scheduleRefresh() {
+        synchronized(lock) {
+            if (refreshTask != null) {
+                return
+            }
+            val delay = maxOf(0, lastRefreshTime + REFRESH_INTERVAL_MS - System.currentTimeMillis())
+            refreshTask = executor.schedule({ refresh() }, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun refresh() {
+        synchronized(lock) {
+            refreshTask = null
+            lastRefreshTime = System.currentTimeMillis()
+        }
+        LocalFileSystem.getInstance()
+            .refreshAndFindFileByIoFile(getTranscriptFile())
+            ?.refresh(true, false)
+    }
+
+    override fun dispose() {
+        flush()
+        executor.shutdown()
+    }
+}
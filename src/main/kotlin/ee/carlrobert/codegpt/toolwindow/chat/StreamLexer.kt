@@ -0,0 +1,289 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+sealed interface StreamEvent {
+    data class Text(val text: String) : StreamEvent
+    data class CodeFenceOpen(val language: String) : StreamEvent
+    data class Code(val code: String) : StreamEvent
+    data object CodeFenceClose : StreamEvent
+    data class Thinking(val text: String) : StreamEvent
+    data object ThinkingEnd : StreamEvent
+}
+
+/**
+ * Splits a streamed response into text, fenced code blocks and a leading `<think>` block.
+ *
+ * Every chunk is consumed once, character by character, and only the characters that can't be
+ * classified yet are held back: a possible think tag, or the start of a line that may turn out
+ * to be a code fence. Consecutive characters of the same kind are emitted as a single event per
+ * chunk, so fences and tags split across chunks are recognized without rescanning the response.
+ */
+class StreamLexer(
+    private val detectThinking: Boolean = true,
+    private val detectCodeFences: Boolean = true,
+) {
+
+    companion object {
+        private const val OPEN_TAG = "<think>"
+        private const val CLOSE_TAG = "</think>"
+        private const val MAX_NEW_LINES_AFTER_THINKING = 2
+        private const val MIN_FENCE_LENGTH = 3
+    }
+
+    private enum class State { THINKING_START, THINKING, THINKING_END, TEXT, CODE }
+
+    private enum class FencePhase { NONE, INDENT, TICKS, INFO }
+
+    private var state = initialState()
+    private var atLineStart = true
+    private var newLinesAfterThinking = 0
+
+    private val pending = StringBuilder()
+    private var fencePhase = FencePhase.NONE
+    private var pendingTicks = 0
+    private var pendingInfoStart = 0
+    private var openFenceTicks = 0
+
+    private val content = StringBuilder()
+    private var events = ArrayList<StreamEvent>()
+
+    /**
+     * Whether the lexer is inside the `<think>` block.
+     */
+    val isThinking: Boolean
+        get() = state == State.THINKING
+
+    fun process(chunk: String): List<StreamEvent> {
+        var index = 0
+        while (index < chunk.length) {
+            val char = chunk[index]
+            if (char == '\r' || consume(char)) {
+                index++
+            }
+        }
+        flushContent()
+        return takeEvents()
+    }
+
+    /**
+     * Emits whatever is still held back once the stream has ended.
+     */
+    fun finish(): List<StreamEvent> {
+        when (state) {
+            State.THINKING_START -> {
+                state = State.TEXT
+                content.append(pending)
+            }
+
+            State.CODE -> if (isClosingFence()) {
+                flushContent()
+                events.add(StreamEvent.CodeFenceClose)
+                state = State.TEXT
+            } else {
+                content.append(pending)
+            }
+
+            else -> content.append(pending)
+        }
+        clearPending()
+        flushContent()
+        return takeEvents()
+    }
+
+    fun clear() {
+        state = initialState()
+        atLineStart = true
+        newLinesAfterThinking = 0
+        clearPending()
+        openFenceTicks = 0
+        content.setLength(0)
+        events = ArrayList()
+    }
+
+    /**
+     * Consumes a single character. Returns false if the character has to be consumed again, after
+     * the lexer switched state or released the characters it held back.
+     */
+    private fun consume(char: Char): Boolean {
+        return when (state) {
+            State.THINKING_START -> consumeThinkingStart(char)
+            State.THINKING -> consumeThinking(char)
+            State.THINKING_END -> consumeThinkingEnd(char)
+            State.TEXT, State.CODE -> consumeContent(char)
+        }
+    }
+
+    private fun consumeThinkingStart(char: Char): Boolean {
+        if (OPEN_TAG[pending.length] == char) {
+            pending.append(char)
+            if (pending.length == OPEN_TAG.length) {
+                pending.setLength(0)
+                state = State.THINKING
+            }
+            return true
+        }
+
+        state = State.TEXT
+        if (pending.isNotEmpty()) {
+            content.append(pending)
+            pending.setLength(0)
+            atLineStart = false
+        }
+        return false
+    }
+
+    private fun consumeThinking(char: Char): Boolean {
+        if (CLOSE_TAG[pending.length] == char) {
+            pending.append(char)
+            if (pending.length == CLOSE_TAG.length) {
+                pending.setLength(0)
+                flushContent()
+                events.add(StreamEvent.ThinkingEnd)
+                state = State.THINKING_END
+            }
+            return true
+        }
+
+        if (pending.isEmpty()) {
+            content.append(char)
+            return true
+        }
+        content.append(pending)
+        pending.setLength(0)
+        return false
+    }
+
+    private fun consumeThinkingEnd(char: Char): Boolean {
+        if (char == '\n' && newLinesAfterThinking < MAX_NEW_LINES_AFTER_THINKING) {
+            newLinesAfterThinking++
+            return true
+        }
+        state = State.TEXT
+        atLineStart = true
+        return false
+    }
+
+    private fun consumeContent(char: Char): Boolean {
+        if (fencePhase != FencePhase.NONE) {
+            return consumeFenceCandidate(char)
+        }
+
+        if (detectCodeFences && atLineStart && (char == ' ' || char == '\t' || char == '`')) {
+            fencePhase = FencePhase.INDENT
+            return false
+        }
+
+        content.append(char)
+        atLineStart = char == '\n'
+        return true
+    }
+
+    /**
+     * Holds back the start of a line until it's known whether the line is a code fence.
+     */
+    private fun consumeFenceCandidate(char: Char): Boolean {
+        when (fencePhase) {
+            FencePhase.INDENT -> when (char) {
+                ' ', '\t' -> pending.append(char)
+                '`' -> {
+                    pending.append(char)
+                    pendingTicks = 1
+                    fencePhase = FencePhase.TICKS
+                }
+
+                else -> return releasePending()
+            }
+
+            FencePhase.TICKS -> when {
+                char == '`' -> {
+                    pending.append(char)
+                    pendingTicks++
+                }
+
+                pendingTicks < MIN_FENCE_LENGTH -> return releasePending()
+                else -> {
+                    pendingInfoStart = pending.length
+                    fencePhase = FencePhase.INFO
+                    return false
+                }
+            }
+
+            FencePhase.INFO -> when {
+                char == '\n' -> onFenceLineEnd()
+                state == State.TEXT && char != '`' -> pending.append(char)
+                state == State.CODE && (char == ' ' || char == '\t') -> pending.append(char)
+                else -> return releasePending()
+            }
+
+            FencePhase.NONE -> return false
+        }
+        return true
+    }
+
+    private fun onFenceLineEnd() {
+        if (state == State.TEXT) {
+            val language = pending.substring(pendingInfoStart).trim()
+            openFenceTicks = pendingTicks
+            clearPending()
+            flushContent()
+            events.add(StreamEvent.CodeFenceOpen(language))
+            state = State.CODE
+        } else if (pendingTicks >= openFenceTicks) {
+            clearPending()
+            flushContent()
+            events.add(StreamEvent.CodeFenceClose)
+            state = State.TEXT
+        } else {
+            content.append(pending).append('\n')
+            clearPending()
+        }
+        atLineStart = true
+    }
+
+    private fun isClosingFence(): Boolean {
+        return (fencePhase == FencePhase.TICKS || fencePhase == FencePhase.INFO)
+                && pendingTicks >= openFenceTicks
+    }
+
+    /**
+     * Emits the held back characters as regular content, after which the current character is
+     * consumed again as part of the same line.
+     */
+    private fun releasePending(): Boolean {
+        content.append(pending)
+        clearPending()
+        atLineStart = false
+        return false
+    }
+
+    private fun clearPending() {
+        pending.setLength(0)
+        fencePhase = FencePhase.NONE
+        pendingTicks = 0
+        pendingInfoStart = 0
+    }
+
+    private fun flushContent() {
+        if (content.isEmpty()) {
+            return
+        }
+
+        val text = content.toString()
+        content.setLength(0)
+        events.add(
+            when (state) {
+                State.THINKING_START, State.THINKING, State.THINKING_END -> StreamEvent.Thinking(text)
+                State.CODE -> StreamEvent.Code(text)
+                State.TEXT -> StreamEvent.Text(text)
+            }
+        )
+    }
+
+    private fun takeEvents(): List<StreamEvent> {
+        if (events.isEmpty()) {
+            return emptyList()
+        }
+        return events.also { events = ArrayList() }
+    }
+
+    private fun initialState() = if (detectThinking) State.THINKING_START else State.TEXT
+}
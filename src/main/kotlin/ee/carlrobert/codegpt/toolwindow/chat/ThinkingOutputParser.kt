@@ -1,12 +1,11 @@
 package ee.carlrobert.codegpt.toolwindow.chat
 
+/**
+ * Separates the leading `<think>` block from the rest of a streamed response, for callers that
+ * don't need the response split into code blocks.
+ */
 class ThinkingOutputParser {
 
-    companion object {
-        private const val OPEN_TAG = "<think>"
-        private const val CLOSE_TAG = "</think>\n\n"
-    }
-
     var thoughtProcess: String = ""
         private set
     var isThinking: Boolean = false
@@ -14,40 +13,40 @@ class ThinkingOutputParser {
     var isFinished: Boolean = false
         private set
 
-    private val buffer = StringBuilder()
-
-    fun processChunk(chunk: String): String {
-        if (isFinished) {
-            return chunk
-        }
-
-        if (buffer.isEmpty() && chunk.isNotEmpty() && !OPEN_TAG.contains(chunk.take(OPEN_TAG.length))) {
-            isFinished = true
-            return chunk
-        }
-
-        buffer.append(chunk)
-        val current = buffer.toString()
-
-        val indexOpen = current.indexOf(OPEN_TAG)
-        if (indexOpen == -1) {
-            return ""
-        }
-
-        isThinking = true
-        val startContent = indexOpen + OPEN_TAG.length
-
-        val indexClose = current.indexOf(CLOSE_TAG, startContent)
-        if (indexClose != -1) {
-            thoughtProcess = current.substring(startContent, indexClose).trim()
-            isFinished = true
-            isThinking = false
-
-            val responseStart = indexClose + CLOSE_TAG.length
-            return current.substring(responseStart)
-        } else {
-            thoughtProcess = current.substring(startContent)
-            return ""
+    private val lexer = StreamLexer(detectCodeFences = false)
+    private val thoughtBuilder = StringBuilder()
+
+    fun processChunk(chunk: String): String = collectOutput(lexer.process(chunk))
+
+    /**
+     * Returns the output that was held back at the end of the last chunk, once the stream has
+     * ended.
+     */
+    fun finish(): String = collectOutput(lexer.finish())
+
+    private fun collectOutput(events: List<StreamEvent>): String {
+        val output = StringBuilder()
+        events.forEach {
+            when (it) {
+                is StreamEvent.Thinking -> {
+                    thoughtBuilder.append(it.text)
+                    thoughtProcess = thoughtBuilder.toString()
+                }
+
+                is StreamEvent.ThinkingEnd -> {
+                    thoughtProcess = thoughtBuilder.toString().trim()
+                    isFinished = true
+                }
+
+                is StreamEvent.Text -> {
+                    isFinished = true
+                    output.append(it.text)
+                }
+
+                else -> {}
+            }
         }
+        isThinking = lexer.isThinking
+        return output.toString()
     }
 }
@@ -0,0 +1,79 @@
+package ee.carlrobert.codegpt.toolwindow.chat.editor
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.runUndoTransparentWriteAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.EditorFactory
+import com.intellij.openapi.editor.ex.EditorEx
+import com.intellij.openapi.project.Project
+import ee.carlrobert.codegpt.util.EditorUtil
+
+/**
+ * Keeps the editors of code blocks that were scrolled out of the chat, so that the code blocks
+ * scrolled into view next can reuse them instead of creating new editors. Editors are pooled per
+ * file extension, which determines their highlighting.
+ */
+@Service(Service.Level.PROJECT)
+class ResponseEditorPool(private val project: Project) : Disposable {
+
+    companion object {
+        private const val MAX_POOLED_EDITORS_PER_EXTENSION = 8
+
+        @JvmStatic
+        fun getInstance(project: Project): ResponseEditorPool = project.service()
+    }
+
+    private val pooledEditors = mutableMapOf<String, ArrayDeque<Editor>>()
+    private val editorExtensions = mutableMapOf<Editor, String>()
+
+    fun acquire(fileExtension: String, code: String): Editor {
+        val editor = pooledEditors[fileExtension]?.removeLastOrNull()
+        if (editor == null) {
+            return EditorUtil.createEditor(project, fileExtension, code)
+                .also { editorExtensions[it] = fileExtension }
+        }
+
+        // The previous code block's text isn't something to undo back to
+        runUndoTransparentWriteAction { editor.document.setText(code) }
+        editor.caretModel.moveToOffset(0)
+        editor.scrollingModel.scrollVertically(0)
+        return editor
+    }
+
+    fun release(editor: Editor) {
+        val fileExtension = editorExtensions[editor]
+        val editors = fileExtension?.let { pooledEditors.getOrPut(it) { ArrayDeque() } }
+        if (editors == null
+            || editors.size >= MAX_POOLED_EDITORS_PER_EXTENSION
+            || project.isDisposed
+        ) {
+            editorExtensions.remove(editor)
+            EditorFactory.getInstance().releaseEditor(editor)
+            return
+        }
+
+        (editor as EditorEx).apply {
+            component.parent?.remove(component)
+            setPermanentHeaderComponent(null)
+            // The expand link of a code block toggles these, restore the state of a new editor
+            isOneLineMode = false
+            setHorizontalScrollbarVisible(true)
+            // The edit action makes the editor writable, disable editing as the action would
+            if (!isViewer) {
+                isViewer = true
+                setCaretVisible(false)
+                setCaretEnabled(false)
+                settings.isCaretRowShown = false
+            }
+        }
+        editors.addLast(editor)
+    }
+
+    override fun dispose() {
+        pooledEditors.values.flatten().forEach { EditorFactory.getInstance().releaseEditor(it) }
+        pooledEditors.clear()
+        editorExtensions.clear()
+    }
+}
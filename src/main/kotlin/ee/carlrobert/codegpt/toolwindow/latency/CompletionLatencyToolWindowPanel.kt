@@ -0,0 +1,155 @@
+package ee.carlrobert.codegpt.toolwindow.latency
+
+import com.intellij.icons.AllIcons
+import com.intellij.notification.NotificationType
+import com.intellij.openapi.actionSystem.ActionManager
+import com.intellij.openapi.actionSystem.AnAction
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.actionSystem.DefaultActionGroup
+import com.intellij.openapi.fileChooser.FileChooserFactory
+import com.intellij.openapi.fileChooser.FileSaverDescriptor
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.SimpleToolWindowPanel
+import com.intellij.ui.ScrollPaneFactory
+import com.intellij.ui.components.JBLabel
+import com.intellij.ui.table.JBTable
+import com.intellij.util.ui.JBUI
+import ee.carlrobert.codegpt.CodeGPTBundle
+import ee.carlrobert.codegpt.EncodingManager
+import ee.carlrobert.codegpt.codecompletions.latency.CompletionLatencyRecorder
+import ee.carlrobert.codegpt.completions.llama.LlamaPromptCache
+import ee.carlrobert.codegpt.ui.OverlayUtil
+import java.awt.BorderLayout
+import java.io.IOException
+import java.nio.file.Files
+import javax.swing.JPanel
+import javax.swing.table.DefaultTableModel
+
+/**
+ * Shows the p50/p95/p99 latency of each inline completion stage per provider, how much of the
+ * prompts the llama.cpp server could take from its cache, and how often token counts were served
+ * from the token count cache.
+ */
+class CompletionLatencyToolWindowPanel(private val project: Project) :
+    SimpleToolWindowPanel(true) {
+
+    private val tableModel = object : DefaultTableModel(
+        arrayOf("Stage", "Provider", "Count", "p50 (ms)", "p95 (ms)", "p99 (ms)"), 0
+    ) {
+        override fun isCellEditable(row: Int, column: Int) = false
+    }
+    private val promptCacheLabel = JBLabel().apply {
+        border = JBUI.Borders.empty(4, 8)
+    }
+    private val tokenCountCacheLabel = JBLabel().apply {
+        border = JBUI.Borders.empty(4, 8)
+    }
+
+    init {
+        val actionGroup = DefaultActionGroup().apply {
+            add(object : AnAction(
+                CodeGPTBundle.get("toolwindow.completionLatency.refresh"),
+                null,
+                AllIcons.Actions.Refresh
+            ) {
+                override fun actionPerformed(e: AnActionEvent) {
+                    refresh()
+                }
+            })
+            add(object : AnAction(
+                CodeGPTBundle.get("toolwindow.completionLatency.export"),
+                null,
+                AllIcons.ToolbarDecorator.Export
+            ) {
+                override fun actionPerformed(e: AnActionEvent) {
+                    export()
+                }
+            })
+            add(object : AnAction(
+                CodeGPTBundle.get("toolwindow.completionLatency.clear"),
+                null,
+                AllIcons.Actions.GC
+            ) {
+                override fun actionPerformed(e: AnActionEvent) {
+                    CompletionLatencyRecorder.getInstance().clear()
+                    LlamaPromptCache.getInstance().clear()
+                    refresh()
+                }
+            })
+        }
+        val toolbar = ActionManager.getInstance()
+            .createActionToolbar("CodeGPTCompletionLatency", actionGroup, true)
+        toolbar.targetComponent = this
+        setToolbar(toolbar.component)
+        setContent(JPanel(BorderLayout()).apply {
+            add(ScrollPaneFactory.createScrollPane(JBTable(tableModel)), BorderLayout.CENTER)
+            add(JPanel(BorderLayout()).apply {
+                add(promptCacheLabel, BorderLayout.NORTH)
+                add(tokenCountCacheLabel, BorderLayout.SOUTH)
+            }, BorderLayout.SOUTH)
+        })
+        refresh()
+    }
+
+    fun refresh() {
+        tableModel.rowCount = 0
+        CompletionLatencyRecorder.getInstance().getStatistics().forEach {
+            tableModel.addRow(
+                arrayOf(
+                    it.stage.label,
+                    it.serviceType?.label ?: "-",
+                    it.count,
+                    "%.1f".format(it.p50Millis),
+                    "%.1f".format(it.p95Millis),
+                    "%.1f".format(it.p99Millis),
+                )
+            )
+        }
+
+        val promptCacheStatistics = LlamaPromptCache.getInstance().getStatistics()
+        promptCacheLabel.isVisible = promptCacheStatistics.isNotEmpty()
+        promptCacheLabel.text = promptCacheStatistics.joinToString("   ") {
+            CodeGPTBundle.get(
+                "toolwindow.completionLatency.promptCache",
+                it.slot.label,
+                it.cachedTokens,
+                it.cachedTokens + it.evaluatedTokens,
+                "%.0f".format(it.cachedRatio * 100)
+            )
+        }
+
+        val tokenCountCacheStatistics = EncodingManager.getInstance().tokenCountCacheStatistics
+        val hits = tokenCountCacheStatistics.hits()
+        val lookups = hits + tokenCountCacheStatistics.misses()
+        tokenCountCacheLabel.text = CodeGPTBundle.get(
+            "toolwindow.completionLatency.tokenCountCache",
+            hits,
+            lookups,
+            "%.0f".format(if (lookups > 0) hits * 100.0 / lookups else 0.0),
+            tokenCountCacheStatistics.size()
+        )
+    }
+
+    private fun export() {
+        val descriptor = FileSaverDescriptor(
+            CodeGPTBundle.get("toolwindow.completionLatency.export"),
+            "",
+            "jsonl"
+        )
+        val fileWrapper = FileChooserFactory.getInstance()
+            .createSaveFileDialog(descriptor, project)
+            .save("completion-latency.jsonl")
+            ?: return
+
+        try {
+            Files.newBufferedWriter(fileWrapper.file.toPath()).use {
+                CompletionLatencyRecorder.getInstance().exportJsonl(it)
+            }
+        } catch (e: IOException) {
+            OverlayUtil.showNotification(
+                CodeGPTBundle.get("toolwindow.completionLatency.exportFailed", e.message),
+                NotificationType.ERROR
+            )
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ee.carlrobert.codegpt.util
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.fileEditor.FileDocumentManagerListener
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vcs.changes.ChangeListListener
+import com.intellij.util.Alarm
+
+/**
+ * Keeps the truncated diff of the project's uncommitted changes ready for completion prompts.
+ *
+ * The diff is recomputed on a pooled thread whenever the change lists are updated or a project
+ * document is saved, with bursts of events coalesced into a single refresh. Until a refresh
+ * finishes, the previous diff is served.
+ */
+@Service(Service.Level.PROJECT)
+class GitDiffCacheService(private val project: Project) : Disposable {
+
+    companion object {
+        private const val REFRESH_DELAY_MS = 300
+    }
+
+    private val refreshAlarm = Alarm(Alarm.ThreadToUse.POOLED_THREAD, this)
+    private val lock = Any()
+    private var requestedGeneration = 0L
+    private var snapshotGeneration = -1L
+    private var snapshot: String? = null
+
+    init {
+        project.messageBus.connect(this).subscribe(
+            ChangeListListener.TOPIC,
+            object : ChangeListListener {
+                override fun changeListUpdateDone() {
+                    scheduleRefresh()
+                }
+            })
+        ApplicationManager.getApplication().messageBus.connect(this).subscribe(
+            FileDocumentManagerListener.TOPIC,
+            object : FileDocumentManagerListener {
+                override fun beforeDocumentSaving(document: Document) {
+                    val file = FileDocumentManager.getInstance().getFile(document) ?: return
+                    if (!project.isDisposed && ProjectFileIndex.getInstance(project).isInContent(file)) {
+                        scheduleRefresh()
+                    }
+                }
+            })
+    }
+
+    /**
+     * Returns the latest computed diff without waiting. Returns null if no diff has been
+     * computed yet, in which case a refresh is scheduled.
+     */
+    fun getCurrentChanges(): String? {
+        synchronized(lock) {
+            if (snapshotGeneration >= 0) {
+                return snapshot
+            }
+        }
+        if (refreshAlarm.isEmpty) {
+            scheduleRefresh()
+        }
+        return null
+    }
+
+    private fun scheduleRefresh() {
+        synchronized(lock) {
+            requestedGeneration++
+        }
+        if (!refreshAlarm.isDisposed) {
+            refreshAlarm.cancelAllRequests()
+            refreshAlarm.addRequest(::refresh, REFRESH_DELAY_MS)
+        }
+    }
+
+    private fun refresh() {
+        if (project.isDisposed) {
+            return
+        }
+
+        val generation = synchronized(lock) { requestedGeneration }
+        val changes = GitUtil.getCurrentChanges(project)
+        synchronized(lock) {
+            if (generation > snapshotGeneration) {
+                snapshotGeneration = generation
+                snapshot = changes
+            }
+        }
+    }
+
+    override fun dispose() {
+    }
+}
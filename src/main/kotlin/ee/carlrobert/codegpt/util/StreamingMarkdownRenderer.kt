@@ -0,0 +1,73 @@
+package ee.carlrobert.codegpt.util
+
+import com.intellij.openapi.diagnostic.thisLogger
+import java.io.IOException
+import javax.swing.JEditorPane
+import javax.swing.text.BadLocationException
+import javax.swing.text.html.HTMLDocument
+
+/**
+ * Renders markdown streamed into a text pane. Only the trailing block, which can still change,
+ * is parsed and rendered again for each chunk. Once a later block starts, the blocks before it
+ * are closed: their HTML is inserted into the pane's document once and never touched again.
+ */
+class StreamingMarkdownRenderer(private val textPane: JEditorPane) {
+
+    companion object {
+        private val logger = thisLogger()
+
+        private const val OPEN_BLOCK_ID = "streaming-open-block"
+    }
+
+    private val markdown = StringBuilder()
+    private val closedHtml = StringBuilder()
+    private var closedLength = 0
+
+    fun append(text: String) {
+        if (text.isEmpty()) {
+            return
+        }
+
+        markdown.append(text)
+        val openMarkdown = markdown.substring(closedLength)
+        val blocks = MarkdownUtil.parseMarkdown(openMarkdown).children.toList()
+
+        var newlyClosedHtml = ""
+        if (blocks.size > 1) {
+            // Closed blocks end where the line of the last block starts, keeping its indentation
+            val openBlockStart = openMarkdown.lastIndexOf('\n', blocks.last().startOffset - 1) + 1
+            newlyClosedHtml = blocks.dropLast(1).joinToString("") { MarkdownUtil.renderHtml(it) }
+            closedLength += openBlockStart
+        }
+        val openHtml = blocks.lastOrNull()?.let { MarkdownUtil.renderHtml(it) }.orEmpty()
+
+        closedHtml.append(newlyClosedHtml)
+        update(newlyClosedHtml, openHtml)
+    }
+
+    private fun update(newlyClosedHtml: String, openHtml: String) {
+        val document = textPane.document as? HTMLDocument
+        val openBlock = document?.getElement(OPEN_BLOCK_ID)
+        if (openBlock == null) {
+            setText(openHtml)
+            return
+        }
+
+        try {
+            if (newlyClosedHtml.isNotEmpty()) {
+                document.insertBeforeStart(openBlock, newlyClosedHtml)
+            }
+            document.setInnerHTML(openBlock, openHtml.ifEmpty { "<p></p>" })
+        } catch (e: BadLocationException) {
+            logger.debug("Unable to update the streamed response incrementally", e)
+            setText(openHtml)
+        } catch (e: IOException) {
+            logger.debug("Unable to update the streamed response incrementally", e)
+            setText(openHtml)
+        }
+    }
+
+    private fun setText(openHtml: String) {
+        textPane.text = "$closedHtml<div id=\"$OPEN_BLOCK_ID\">$openHtml</div>"
+    }
+}
@@ -0,0 +1,83 @@
+package ee.carlrobert.codegpt
+
+import com.intellij.openapi.components.service
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.within
+import testsupport.IntegrationTest
+import java.util.UUID
+
+class EncodingManagerTest : IntegrationTest() {
+
+    private val text = (1..400).joinToString("\n") { "val value$it = compute($it) // café №$it" }
+
+    fun `test keeps the requested number of tokens from the end`() {
+        val encodingManager = service<EncodingManager>()
+
+        val offset = encodingManager.getTruncationOffset(text, 256, false)
+
+        assertThat(offset).isGreaterThan(0)
+        assertThat(encodingManager.countTokens(text.substring(offset))).isCloseTo(256, within(2))
+    }
+
+    fun `test keeps the requested number of tokens from the start`() {
+        val encodingManager = service<EncodingManager>()
+
+        val offset = encodingManager.getTruncationOffset(text, 256, true)
+
+        assertThat(offset).isLessThan(text.length)
+        assertThat(encodingManager.countTokens(text.substring(0, offset))).isCloseTo(256, within(2))
+    }
+
+    fun `test keeps the whole text when it fits`() {
+        val encodingManager = service<EncodingManager>()
+
+        assertThat(encodingManager.getTruncationOffset("fun main() {}", 256, false)).isZero()
+        assertThat(encodingManager.truncateText("fun main() {}", 256, true))
+            .isEqualTo("fun main() {}")
+    }
+
+    fun `test serves repeated token counts from the cache`() {
+        val encodingManager = service<EncodingManager>()
+        val cachedText = "${UUID.randomUUID()} val cached = compute(1) // long enough to be cached"
+        val before = encodingManager.tokenCountCacheStatistics
+
+        val count = encodingManager.countTokens(cachedText)
+        val repeatedCount = encodingManager.countTokens(cachedText)
+
+        val after = encodingManager.tokenCountCacheStatistics
+        assertThat(repeatedCount).isEqualTo(count)
+        assertThat(after.hits() - before.hits()).isEqualTo(1)
+        assertThat(after.misses() - before.misses()).isEqualTo(1)
+    }
+
+    fun `test evicts the least recently used token counts`() {
+        val encodingManager = service<EncodingManager>()
+        val prefix = UUID.randomUUID().toString()
+        fun cachedText(index: Int) = "$prefix val value$index = compute($index) // cached"
+        encodingManager.countTokens(cachedText(0))
+        encodingManager.countTokens(cachedText(1))
+        encodingManager.countTokens(cachedText(0))
+        for (index in 2..EncodingManager.MAX_CACHE_ENTRIES) {
+            encodingManager.countTokens(cachedText(index))
+        }
+        val before = encodingManager.tokenCountCacheStatistics
+
+        encodingManager.countTokens(cachedText(0))
+        encodingManager.countTokens(cachedText(1))
+
+        val after = encodingManager.tokenCountCacheStatistics
+        assertThat(after.hits() - before.hits()).isEqualTo(1)
+        assertThat(after.misses() - before.misses()).isEqualTo(1)
+        assertThat(after.size()).isEqualTo(EncodingManager.MAX_CACHE_ENTRIES)
+    }
+
+    fun `test removes special token markers but keeps angle brackets`() {
+        val encodingManager = service<EncodingManager>()
+
+        assertThat(encodingManager.countTokens("<|endoftext|>"))
+            .isEqualTo(encodingManager.countTokens("endoftext"))
+        assertThat(encodingManager.countTokens("List<String>"))
+            .isGreaterThan(encodingManager.countTokens("ListString"))
+        assertThat(encodingManager.truncateText("Map<K, V>", 256, true)).isEqualTo("Map<K, V>")
+    }
+}
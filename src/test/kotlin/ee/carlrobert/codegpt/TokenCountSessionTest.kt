@@ -0,0 +1,65 @@
+package ee.carlrobert.codegpt
+
+import com.knuddels.jtokkit.Encodings
+import com.knuddels.jtokkit.api.EncodingType
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.within
+import org.junit.Test
+
+class TokenCountSessionTest {
+
+    private val encoding =
+        Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE)
+
+    @Test
+    fun `counts the same tokens as encoding the whole text`() {
+        val text = """
+            Here is the updated method:
+
+            ```kotlin
+            fun sum(values: List<Int>): Int {
+                return values.fold(0) { acc, value -> acc + value } // 12345 isn't used
+            }
+            ```
+
+            It's   shorter, and handles   empty lists.
+        """.trimIndent()
+        val session = TokenCountSession { encoding.countTokens(it) }
+
+        text.chunked(3).forEach { chunk ->
+            session.append(chunk)
+        }
+
+        assertThat(session.tokenCount).isEqualTo(encoding.countTokens(text))
+    }
+
+    @Test
+    fun `returns running count after each append`() {
+        val session = TokenCountSession { encoding.countTokens(it) }
+        val builder = StringBuilder()
+
+        listOf("Hel", "lo wor", "ld,", " this is", " stream", "ed\n", "text 1", "23").forEach {
+            builder.append(it)
+
+            assertThat(session.append(it)).isEqualTo(encoding.countTokens(builder.toString()))
+        }
+    }
+
+    @Test
+    fun `keeps the re-encoded tail bounded for text without word boundaries`() {
+        val text = "这是一个没有空格的很长的句子，用来测试令牌计数。".repeat(40) + "+=-*/".repeat(100)
+        var longestEncodedText = 0
+        val session = TokenCountSession {
+            longestEncodedText = maxOf(longestEncodedText, it.length)
+            encoding.countTokens(it)
+        }
+
+        text.chunked(3).forEach { chunk ->
+            session.append(chunk)
+        }
+
+        val expectedTokens = encoding.countTokens(text)
+        assertThat(longestEncodedText).isLessThanOrEqualTo(TokenCountSession.MAX_TAIL_LENGTH + 3)
+        assertThat(session.tokenCount).isCloseTo(expectedTokens, within(expectedTokens / 50))
+    }
+}
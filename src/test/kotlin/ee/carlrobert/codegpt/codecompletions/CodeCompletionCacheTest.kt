@@ -0,0 +1,181 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.editor.impl.DocumentImpl
+import okhttp3.Request
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.IntegrationTest
+
+class CodeCompletionCacheTest : IntegrationTest() {
+
+    fun `test serves remaining completion while typing through it`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        cache.put(createKey(document, caretOffset), "public void main")
+
+        document.insertString(caretOffset, "pub")
+
+        assertThat(cache.get(createKey(document, caretOffset + 3))).isEqualTo("lic void main")
+    }
+
+    fun `test returns null when typed text diverges from completion`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        cache.put(createKey(document, caretOffset), "public void main")
+
+        document.insertString(caretOffset, "pri")
+
+        assertThat(cache.get(createKey(document, caretOffset + 3))).isNull()
+    }
+
+    fun `test returns null when surrounding text changes`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        cache.put(createKey(document, caretOffset), "public void main")
+
+        document.insertString(0, "final ")
+
+        assertThat(cache.get(createKey(document, caretOffset + 6))).isNull()
+    }
+
+    fun `test reuses in-flight completion when prefix extends it`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        document.insertString(caretOffset, "p")
+        val nextKey = createKey(document, caretOffset + 1)
+
+        assertThat(cache.findInFlight(nextKey)).isSameAs(inFlight)
+        cache.complete(inFlight, "public void main")
+
+        assertThat(cache.findInFlight(nextKey)).isNull()
+        assertThat(inFlight.result.get()).isEqualTo("public void main")
+        assertThat(cache.get(nextKey)).isEqualTo("ublic void main")
+    }
+
+    fun `test cancels in-flight completion when caret moves away`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+
+        cache.release(inFlight, createKey(document, 5))
+
+        assertThat(eventSource.cancelled).isTrue()
+        assertThat(inFlight.result.get()).isNull()
+        assertThat(cache.findInFlight(createKey(document, caretOffset))).isNull()
+    }
+
+    fun `test cancels in-flight completion when dismissed without typing`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+
+        cache.release(inFlight, createKey(document, caretOffset))
+
+        assertThat(eventSource.cancelled).isTrue()
+    }
+
+    fun `test cancels in-flight completion when editor is gone`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val inFlight = cache.startInFlight(createKey(document, 17))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+
+        cache.release(inFlight, null)
+
+        assertThat(eventSource.cancelled).isTrue()
+    }
+
+    fun `test keeps in-flight completion for request that typed through it`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+        document.insertString(caretOffset, "p")
+        val nextKey = createKey(document, caretOffset + 1)
+
+        cache.release(inFlight, nextKey)
+        val attached = cache.attachInFlight(nextKey)
+
+        assertThat(eventSource.cancelled).isFalse()
+        assertThat(attached).isSameAs(inFlight)
+    }
+
+    fun `test cancels in-flight completion when typed text diverges from received text`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+        inFlight.onReceived("public")
+        document.insertString(caretOffset, "pri")
+        val nextKey = createKey(document, caretOffset + 3)
+
+        cache.release(inFlight, nextKey)
+
+        assertThat(cache.attachInFlight(nextKey)).isNull()
+        assertThat(eventSource.cancelled).isTrue()
+    }
+
+    fun `test keeps in-flight completion when typed text continues received text`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+        inFlight.onReceived("public")
+        document.insertString(caretOffset, "pub")
+        val nextKey = createKey(document, caretOffset + 3)
+
+        cache.release(inFlight, nextKey)
+
+        assertThat(cache.attachInFlight(nextKey)).isSameAs(inFlight)
+        assertThat(eventSource.cancelled).isFalse()
+    }
+
+    fun `test cancels in-flight completion once last attached request moves away`() {
+        val cache = CodeCompletionCache()
+        val document = DocumentImpl("class Main {\n    \n}", true)
+        val caretOffset = 17
+        val inFlight = cache.startInFlight(createKey(document, caretOffset))
+        val eventSource = TestEventSource()
+        inFlight.eventSource = eventSource
+        document.insertString(caretOffset, "p")
+        val nextKey = createKey(document, caretOffset + 1)
+        cache.attachInFlight(nextKey)
+
+        cache.release(inFlight, createKey(document, 5))
+        assertThat(eventSource.cancelled).isFalse()
+        cache.release(inFlight, createKey(document, 5))
+
+        assertThat(eventSource.cancelled).isTrue()
+    }
+
+    private class TestEventSource : EventSource {
+        var cancelled = false
+
+        override fun request(): Request = Request.Builder().url("http://localhost").build()
+
+        override fun cancel() {
+            cancelled = true
+        }
+    }
+
+    private fun createKey(document: DocumentImpl, caretOffset: Int) =
+        CodeCompletionCacheKey.create(document, caretOffset, "/Main.java", CompletionType.MULTI_LINE)
+}
@@ -0,0 +1,55 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import kotlin.time.Duration.Companion.milliseconds
+
+class CodeCompletionDebounceSchedulerTest {
+
+    @Test
+    fun `uses shorter default delay for local providers`() {
+        val scheduler = CodeCompletionDebounceScheduler()
+
+        assertThat(scheduler.getDelay(ServiceType.OLLAMA)).isEqualTo(150.milliseconds)
+        assertThat(scheduler.getDelay(ServiceType.OPENAI)).isEqualTo(600.milliseconds)
+    }
+
+    @Test
+    fun `derives delay from measured time to first token`() {
+        val scheduler = CodeCompletionDebounceScheduler()
+        repeat(10) { scheduler.recordTimeToFirstToken(ServiceType.LLAMA_CPP, 60) }
+        repeat(10) { scheduler.recordTimeToFirstToken(ServiceType.OPENAI, 1400) }
+
+        assertThat(scheduler.getDelay(ServiceType.LLAMA_CPP)).isEqualTo(75.milliseconds)
+        assertThat(scheduler.getDelay(ServiceType.OPENAI)).isEqualTo(700.milliseconds)
+    }
+
+    @Test
+    fun `extends delay beyond the typing cadence during a burst`() {
+        val scheduler = CodeCompletionDebounceScheduler()
+        repeat(10) { scheduler.recordTimeToFirstToken(ServiceType.LLAMA_CPP, 60) }
+        var timestamp = 10_000L
+        listOf(300L, 250L, 280L, 200L, 120L, 110L, 100L).forEach {
+            timestamp += it
+            scheduler.recordKeystroke(timestamp)
+        }
+
+        assertThat(scheduler.getDelay(ServiceType.LLAMA_CPP)).isEqualTo(420.milliseconds)
+
+        scheduler.recordKeystroke(timestamp + 900)
+
+        assertThat(scheduler.getDelay(ServiceType.LLAMA_CPP)).isEqualTo(75.milliseconds)
+    }
+
+    @Test
+    fun `rolling histogram keeps only the latest samples`() {
+        val histogram = RollingHistogram(4)
+        listOf(100L, 1L, 2L, 3L, 4L).forEach { histogram.add(it) }
+
+        assertThat(histogram.size()).isEqualTo(4)
+        assertThat(histogram.percentile(100.0)).isEqualTo(4L)
+        assertThat(histogram.percentile(50.0)).isEqualTo(2L)
+        assertThat(histogram.latest(2)).containsExactly(4L, 3L)
+    }
+}
@@ -388,6 +388,7 @@ class CodeCompletionServiceTest : IntegrationTest() {
             errorMessage,
             {
                 val remainingCompletion = REMAINING_EDITOR_COMPLETION.get(myFixture.editor)
+                    ?.getRemaining()
                     ?: return@waitWithEventsDispatching false
                 onAssert(remainingCompletion)
             },
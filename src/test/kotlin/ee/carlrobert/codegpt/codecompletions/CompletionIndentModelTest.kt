@@ -0,0 +1,25 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class CompletionIndentModelTest {
+
+    @Test
+    fun `rewrites tab indentation with spaces`() {
+        val indentModel = CompletionIndentModel(false, 4)
+
+        val completion = indentModel.reindent("if (a) {\n\tfoo();\n\t  bar();\n}")
+
+        assertThat(completion).isEqualTo("if (a) {\n    foo();\n      bar();\n}")
+    }
+
+    @Test
+    fun `rewrites space indentation with tabs`() {
+        val indentModel = CompletionIndentModel(true, 4)
+
+        val completion = indentModel.reindent("{\n        foo();\n     \n  }")
+
+        assertThat(completion).isEqualTo("{\n\t\tfoo();\n\n  }")
+    }
+}
@@ -0,0 +1,64 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class CompletionLineBufferTest {
+
+    @Test
+    fun `consumes accepted text while lines are appended`() {
+        val buffer = CompletionLineBuffer(ServiceType.OLLAMA)
+        buffer.append("int data;\n")
+        buffer.append("   Node left;\n")
+
+        buffer.consume("int data;")
+        buffer.consume("\n   ")
+        buffer.append("   Node right;\n")
+
+        assertThat(buffer.getRemaining()).isEqualTo("Node left;\n   Node right;\n")
+        assertThat(buffer.getLineCount()).isEqualTo(3)
+    }
+
+    @Test
+    fun `ignores text that does not continue the remaining completion`() {
+        val buffer = CompletionLineBuffer(ServiceType.OLLAMA)
+        buffer.append("int data;\n")
+
+        buffer.consume("long")
+
+        assertThat(buffer.getRemaining()).isEqualTo("int data;\n")
+    }
+
+    @Test
+    fun `reports no accepted lines when nothing was accepted`() {
+        val buffer = CompletionLineBuffer(ServiceType.OLLAMA)
+        buffer.append("int data;\n   Node left;\n")
+
+        assertThat(buffer.getAcceptedLineCount()).isNull()
+    }
+
+    @Test
+    fun `reports zero accepted lines when only the displayed line was accepted`() {
+        val buffer = CompletionLineBuffer(ServiceType.OLLAMA)
+        buffer.append("int data;\n   Node left;\n")
+
+        buffer.consume("int data;")
+
+        assertThat(buffer.getAcceptedLineCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `carries accepted lines over to the rest of the completion`() {
+        val previous = CompletionLineBuffer(ServiceType.OLLAMA)
+        previous.append("int data;\n   Node left;\n   Node right;\n")
+        previous.consume("int data;\n   ")
+        val buffer = CompletionLineBuffer(ServiceType.OLLAMA)
+        buffer.append("Node left;\n   Node right;\n")
+
+        buffer.takeOverAcceptance(previous)
+        buffer.consume("Node left;\n")
+
+        assertThat(buffer.getAcceptedLineCount()).isEqualTo(2)
+    }
+}
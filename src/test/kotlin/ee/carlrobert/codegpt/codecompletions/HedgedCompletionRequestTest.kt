@@ -0,0 +1,150 @@
+package ee.carlrobert.codegpt.codecompletions
+
+import com.intellij.openapi.components.service
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import ee.carlrobert.llm.client.openai.completion.ErrorDetails
+import ee.carlrobert.llm.completion.CompletionEventListener
+import okhttp3.Request
+import okhttp3.sse.EventSource
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.IntegrationTest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class HedgedCompletionRequestTest : IntegrationTest() {
+
+    private val primaryService = ServiceType.LLAMA_CPP
+    private val secondaryService = ServiceType.OLLAMA
+
+    private val listeners = ConcurrentHashMap<ServiceType, CompletionEventListener<String>>()
+    private val eventSources = ConcurrentHashMap<ServiceType, TestEventSource>()
+    private val secondaryStarted = CountDownLatch(1)
+
+    fun `test forwards the first stream with output and cancels the other`() {
+        val timeToFirstToken = service<CodeCompletionDebounceScheduler>()
+            .getTimeToFirstToken(primaryService)
+        val samples = timeToFirstToken.size()
+        val listener = RecordingListener()
+        val request = createRequest(listener, hedgeDelay = 0).start()
+        awaitSecondary()
+
+        listeners.getValue(secondaryService).onMessage("int", eventSources.getValue(secondaryService))
+        listeners.getValue(primaryService).onMessage("long", eventSources.getValue(primaryService))
+
+        assertThat(listener.messages).containsExactly("int")
+        assertThat(request.getRespondingService()).isEqualTo(secondaryService)
+        assertThat(eventSources.getValue(primaryService).cancelled).isTrue()
+        assertThat(eventSources.getValue(secondaryService).cancelled).isFalse()
+        assertThat(timeToFirstToken.size()).isEqualTo(samples + 1)
+    }
+
+    fun `test cancels a stream that lost while it was being started`() {
+        val listener = RecordingListener()
+        val request = createRequest(listener, hedgeDelay = 0) { serviceType ->
+            if (serviceType == secondaryService) {
+                listeners.getValue(primaryService)
+                    .onMessage("int", eventSources.getValue(primaryService))
+            }
+        }.start()
+        awaitSecondary()
+
+        assertThat(listener.messages).containsExactly("int")
+        assertThat(request.getRespondingService()).isEqualTo(primaryService)
+        awaitCancelled(eventSources.getValue(secondaryService))
+    }
+
+    fun `test cancels both streams`() {
+        val request = createRequest(RecordingListener(), hedgeDelay = 0).start()
+        awaitSecondary()
+
+        request.cancel()
+
+        assertThat(eventSources.getValue(primaryService).cancelled).isTrue()
+        awaitCancelled(eventSources.getValue(secondaryService))
+    }
+
+    fun `test hands over to the secondary stream when the primary one fails before output`() {
+        val listener = RecordingListener()
+        val request = createRequest(listener, hedgeDelay = 60_000).start()
+
+        listeners.getValue(primaryService).onError(ErrorDetails("Primary failed"), RuntimeException())
+
+        assertThat(listener.errors).isEmpty()
+        assertThat(eventSources).containsKey(secondaryService)
+
+        listeners.getValue(secondaryService).onMessage("int", eventSources.getValue(secondaryService))
+
+        assertThat(listener.messages).containsExactly("int")
+        assertThat(request.getRespondingService()).isEqualTo(secondaryService)
+    }
+
+    fun `test reports the failure once both streams failed before output`() {
+        val listener = RecordingListener()
+        createRequest(listener, hedgeDelay = 60_000).start()
+
+        listeners.getValue(primaryService).onError(ErrorDetails("Primary failed"), RuntimeException())
+        listeners.getValue(secondaryService).onError(ErrorDetails("Secondary failed"), RuntimeException())
+
+        assertThat(listener.errors).containsExactly("Secondary failed")
+    }
+
+    private fun createRequest(
+        listener: CompletionEventListener<String>,
+        hedgeDelay: Long,
+        onStart: (ServiceType) -> Unit = {}
+    ) = HedgedCompletionRequest(
+        listener,
+        primaryService,
+        secondaryService,
+        null,
+        hedgeDelay
+    ) { serviceType, legListener, onRequestSent ->
+        listeners[serviceType] = legListener
+        onRequestSent()
+        onStart(serviceType)
+        TestEventSource().also {
+            eventSources[serviceType] = it
+            if (serviceType == secondaryService) {
+                secondaryStarted.countDown()
+            }
+        }
+    }
+
+    private fun awaitSecondary() {
+        assertThat(secondaryStarted.await(5, TimeUnit.SECONDS)).isTrue()
+    }
+
+    // The secondary stream is started on another thread, which cancels it after the start
+    private fun awaitCancelled(eventSource: TestEventSource) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (!eventSource.cancelled && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assertThat(eventSource.cancelled).isTrue()
+    }
+
+    private class RecordingListener : CompletionEventListener<String> {
+        val messages = mutableListOf<String>()
+        val errors = mutableListOf<String>()
+
+        override fun onMessage(message: String, eventSource: EventSource) {
+            messages.add(message)
+        }
+
+        override fun onError(error: ErrorDetails, ex: Throwable) {
+            errors.add(error.message)
+        }
+    }
+
+    private class TestEventSource : EventSource {
+        @Volatile
+        var cancelled = false
+
+        override fun request(): Request = Request.Builder().url("http://localhost").build()
+
+        override fun cancel() {
+            cancelled = true
+        }
+    }
+}
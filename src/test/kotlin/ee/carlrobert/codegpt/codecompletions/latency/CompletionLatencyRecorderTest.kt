@@ -0,0 +1,39 @@
+package ee.carlrobert.codegpt.codecompletions.latency
+
+import ee.carlrobert.codegpt.settings.service.ServiceType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.io.StringWriter
+
+class CompletionLatencyRecorderTest {
+
+    @Test
+    fun `computes percentiles per stage and provider`() {
+        val recorder = CompletionLatencyRecorder()
+        val trace = recorder.startTrace(ServiceType.OLLAMA)
+        (1..100).forEach { trace.record(CompletionStage.GIT_DIFF, it * 1_000_000L) }
+        recorder.startTrace(ServiceType.OPENAI).record(CompletionStage.GIT_DIFF, 5_000_000L)
+
+        val statistics = recorder.getStatistics()
+
+        assertThat(statistics).hasSize(2)
+        assertThat(statistics.first { it.serviceType == ServiceType.OLLAMA })
+            .extracting("count", "p50Millis", "p95Millis", "p99Millis")
+            .containsExactly(100, 50.0, 95.0, 99.0)
+    }
+
+    @Test
+    fun `exports spans as json lines`() {
+        val recorder = CompletionLatencyRecorder()
+        val trace = recorder.startTrace(ServiceType.LLAMA_CPP)
+        trace.record(CompletionStage.CONNECT, 2_000_000L)
+        trace.record(CompletionStage.STREAM, 4_000_000L)
+        val writer = StringWriter()
+
+        recorder.exportJsonl(writer)
+
+        val lines = writer.toString().lines().filter { it.isNotEmpty() }
+        assertThat(lines).hasSize(2)
+        assertThat(lines[0]).contains("\"stage\":\"CONNECT\"", "\"durationMillis\":2.0")
+    }
+}
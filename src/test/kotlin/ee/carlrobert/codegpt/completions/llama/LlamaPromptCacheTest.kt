@@ -0,0 +1,55 @@
+package ee.carlrobert.codegpt.completions.llama
+
+import ee.carlrobert.codegpt.settings.service.llama.LlamaSettings
+import ee.carlrobert.llm.client.http.RequestEntity
+import ee.carlrobert.llm.client.http.exchange.StreamHttpExchange
+import ee.carlrobert.llm.client.llama.completion.LlamaCompletionRequest
+import ee.carlrobert.llm.client.util.JSONUtil.*
+import ee.carlrobert.llm.completion.CompletionEventListener
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.tuple
+import testsupport.IntegrationTest
+
+class LlamaPromptCacheTest : IntegrationTest() {
+
+    fun `test sends completion request with prompt caching on the slot`() {
+        useLlamaService(true)
+        LlamaSettings.getCurrentState().isRunLocalServer = true
+        val promptCache = LlamaPromptCache.getInstance()
+        promptCache.clear()
+        expectLlama(StreamHttpExchange { request: RequestEntity ->
+            assertThat(request.uri.path).isEqualTo("/completion")
+            assertThat(request.method).isEqualTo("POST")
+            assertThat(request.body)
+                .extracting("prompt", "stream", "n_predict", "cache_prompt", "id_slot")
+                .containsExactly("public void ", true, 16, true, 0)
+            listOf(
+                jsonMapResponse("content", "main"),
+                jsonMapResponse(
+                    e("content", "()"),
+                    e("stop", true),
+                    e("tokens_evaluated", 12),
+                    e("timings", jsonMap("prompt_n", 4))
+                )
+            )
+        })
+        var completion: String? = null
+
+        promptCache.getCompletionAsync(
+            LlamaCompletionRequest.Builder("public void ")
+                .setN_predict(16)
+                .setStream(true)
+                .build(),
+            LlamaSlot.CODE_COMPLETION,
+            object : CompletionEventListener<String> {
+                override fun onComplete(messageBuilder: StringBuilder) {
+                    completion = messageBuilder.toString()
+                }
+            })
+
+        waitExpecting { completion == "main()" }
+        assertThat(promptCache.getStatistics())
+            .extracting("slot", "requests", "cachedTokens", "evaluatedTokens")
+            .containsExactly(tuple(LlamaSlot.CODE_COMPLETION, 1, 8L, 4L))
+    }
+}
@@ -0,0 +1,91 @@
+package ee.carlrobert.codegpt.toolwindow.chat
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class StreamLexerTest {
+
+    @Test
+    fun `should split text and code blocks`() {
+        val lexer = StreamLexer()
+
+        val events = lexer.process("Some text:\n```kotlin\nval a = 1\n```\nMore text")
+
+        assertThat(events).containsExactly(
+            StreamEvent.Text("Some text:\n"),
+            StreamEvent.CodeFenceOpen("kotlin"),
+            StreamEvent.Code("val a = 1\n"),
+            StreamEvent.CodeFenceClose,
+            StreamEvent.Text("More text"),
+        )
+    }
+
+    @Test
+    fun `should recognize fences split across chunks`() {
+        val lexer = StreamLexer()
+
+        val events = listOf("Text\n`", "``ja", "va\nint a;\n``", "`\nDone")
+            .flatMap { lexer.process(it) }
+
+        assertThat(events).containsExactly(
+            StreamEvent.Text("Text\n"),
+            StreamEvent.CodeFenceOpen("java"),
+            StreamEvent.Code("int a;\n"),
+            StreamEvent.CodeFenceClose,
+            StreamEvent.Text("Done"),
+        )
+    }
+
+    @Test
+    fun `should keep backticks that don't form a fence`() {
+        val lexer = StreamLexer()
+
+        val events = listOf("Use `val`", "\n``", " or ```inline``` code").flatMap { lexer.process(it) }
+
+        assertThat(events.joinToString("") { (it as StreamEvent.Text).text })
+            .isEqualTo("Use `val`\n`` or ```inline``` code")
+    }
+
+    @Test
+    fun `should not close a code block on a fence with a language`() {
+        val lexer = StreamLexer()
+
+        val events = lexer.process("```markdown\n```kotlin\n```\n")
+
+        assertThat(events).containsExactly(
+            StreamEvent.CodeFenceOpen("markdown"),
+            StreamEvent.Code("```kotlin\n"),
+            StreamEvent.CodeFenceClose,
+        )
+    }
+
+    @Test
+    fun `should separate the thinking block from the response`() {
+        val lexer = StreamLexer()
+
+        val events = listOf("<thi", "nk>Let me see", "</thi", "nk>\n\nAnswer").flatMap { lexer.process(it) }
+
+        assertThat(events).containsExactly(
+            StreamEvent.Thinking("Let me see"),
+            StreamEvent.ThinkingEnd,
+            StreamEvent.Text("Answer"),
+        )
+    }
+
+    @Test
+    fun `should release text that only looks like the start of a think tag`() {
+        val lexer = StreamLexer()
+
+        val events = listOf("<th", "ing>").flatMap { lexer.process(it) }
+
+        assertThat(events).containsExactly(StreamEvent.Text("<thing>"))
+    }
+
+    @Test
+    fun `should close the code block when the stream ends on a fence`() {
+        val lexer = StreamLexer()
+        lexer.process("```\ncode\n```")
+
+        assertThat(lexer.finish()).containsExactly(StreamEvent.CodeFenceClose)
+    }
+}
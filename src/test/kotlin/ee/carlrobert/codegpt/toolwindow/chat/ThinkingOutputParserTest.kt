@@ -51,4 +51,13 @@ class ThinkingOutputParserTest {
         assertThat(finalOutput).isEqualTo("The final answer.")
         assertThat(parser.thoughtProcess).isEqualTo("some internal processing with even more details...")
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `returns the output held back at the end of the stream once finished`() {
+        val parser = ThinkingOutputParser()
+
+        assertThat(parser.processChunk("<thi")).isEmpty()
+        assertThat(parser.finish()).isEqualTo("<thi")
+        assertThat(parser.isFinished).isTrue()
+    }
+}
@@ -0,0 +1,48 @@
+package ee.carlrobert.codegpt.toolwindow.chat.editor
+
+import com.intellij.openapi.editor.EditorFactory
+import com.intellij.openapi.editor.ex.EditorEx
+import org.assertj.core.api.Assertions.assertThat
+import testsupport.IntegrationTest
+
+class ResponseEditorPoolTest : IntegrationTest() {
+
+    fun `test reuses a released editor for the next code block`() {
+        val pool = ResponseEditorPool.getInstance(project)
+        val editor = pool.acquire(".java", "class Main {\n}")
+        (editor as EditorEx).isOneLineMode = true
+        editor.caretModel.moveToOffset(5)
+
+        pool.release(editor)
+        val reusedEditor = pool.acquire(".java", "record Point(int x, int y) {}")
+
+        try {
+            assertThat(reusedEditor).isSameAs(editor)
+            assertThat(reusedEditor.document.text).isEqualTo("record Point(int x, int y) {}")
+            assertThat(reusedEditor.caretModel.offset).isZero()
+            assertThat((reusedEditor as EditorEx).isOneLineMode).isFalse()
+        } finally {
+            EditorFactory.getInstance().releaseEditor(reusedEditor)
+        }
+    }
+
+    fun `test disables editing of an editor released in edit mode`() {
+        val pool = ResponseEditorPool.getInstance(project)
+        val editor = pool.acquire(".java", "class Main {\n}") as EditorEx
+        editor.isViewer = false
+        editor.setCaretVisible(true)
+        editor.setCaretEnabled(true)
+        editor.settings.isCaretRowShown = true
+
+        pool.release(editor)
+        val reusedEditor = pool.acquire(".java", "class Point {\n}") as EditorEx
+
+        try {
+            assertThat(reusedEditor).isSameAs(editor)
+            assertThat(reusedEditor.isViewer).isTrue()
+            assertThat(reusedEditor.settings.isCaretRowShown).isFalse()
+        } finally {
+            EditorFactory.getInstance().releaseEditor(reusedEditor)
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ee.carlrobert.codegpt.util
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import javax.swing.JEditorPane
+
+class StreamingMarkdownRendererTest {
+
+    private val markdown = """
+        |# Title
+        |
+        |First paragraph
+        |continues here.
+        |
+        |- one
+        |- two
+        |
+        || a | b |
+        ||---|---|
+        || 1 | 2 |
+        |
+        |Last paragraph""".trimMargin()
+
+    @Test
+    fun `should render the same text as a full render when streamed`() {
+        val streamedPane = JEditorPane("text/html", "")
+        val renderer = StreamingMarkdownRenderer(streamedPane)
+
+        markdown.chunked(3).forEach { renderer.append(it) }
+
+        val fullPane = JEditorPane("text/html", MarkdownUtil.convertMdToHtml(markdown))
+        assertThat(streamedPane.textContent()).isEqualTo(fullPane.textContent())
+    }
+
+    @Test
+    fun `should keep closed blocks when the open block changes`() {
+        val pane = JEditorPane("text/html", "")
+        val renderer = StreamingMarkdownRenderer(pane)
+
+        renderer.append("First paragraph\n\nSecond")
+        renderer.append(" paragraph")
+
+        assertThat(pane.textContent()).contains("First paragraph", "Second paragraph")
+    }
+
+    private fun JEditorPane.textContent() =
+        document.getText(0, document.length).replace(Regex("\\s+"), " ").trim()
+}